@@ -0,0 +1,21 @@
+package org.dreamcat.round.lex;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Jerry Will
+ * @version 2022-08-30
+ */
+abstract class AbstractTokenCache<T extends Token> implements TokenCache<T> {
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    abstract int size();
+
+    @Override
+    public TokenCacheStats getStats() {
+        return new TokenCacheStats(hits.sum(), misses.sum(), evictions.sum(), size());
+    }
+}
@@ -0,0 +1,73 @@
+package org.dreamcat.round.lex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * a sliding window of chars read from a reader,
+ * indexed by the offset in the whole input
+ *
+ * @author Jerry Will
+ * @version 2022-08-24
+ */
+final class CharWindow implements CharSequence {
+
+    private char[] buf;
+    private int base; // offset of buf[0] in the input
+    private int count; // chars in the buf
+
+    CharWindow(int size) {
+        this.buf = new char[Math.max(size, 16)];
+    }
+
+    /**
+     * drop chars before the offset, and read more chars after the window,
+     * the window grows only if no char can be dropped
+     *
+     * @param keepFrom the first offset to keep
+     * @return false if the reader is exhausted
+     */
+    boolean fill(Reader reader, int keepFrom) throws IOException {
+        int drop = keepFrom - base;
+        if (drop > 0) {
+            System.arraycopy(buf, drop, buf, 0, count - drop);
+            count -= drop;
+            base = keepFrom;
+        }
+        if (count == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length << 1);
+        }
+
+        int n = reader.read(buf, count, buf.length - count);
+        if (n < 0) return false;
+        count += n;
+        return true;
+    }
+
+    /**
+     * @return offset after the last char in the window
+     */
+    @Override
+    public int length() {
+        return base + count;
+    }
+
+    /**
+     * @param index offset in the input, not before the window
+     */
+    @Override
+    public char charAt(int index) {
+        return buf[index - base];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(buf, start - base, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count);
+    }
+}
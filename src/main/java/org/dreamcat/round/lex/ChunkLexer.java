@@ -0,0 +1,168 @@
+package org.dreamcat.round.lex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import lombok.RequiredArgsConstructor;
+import org.dreamcat.round.exception.LexCompileException;
+
+/**
+ * lex a large expression in chunks in parallel,
+ * a chunk starts after a newline, which is assumed not in a token,
+ * and is validated when the chunks are stitched in order:
+ * if a token of the previous chunk crosses the start of a chunk,
+ * the chars are scanned again until a token starts where a token of the chunk starts
+ *
+ * @author Jerry Will
+ * @version 2022-09-05
+ */
+@RequiredArgsConstructor
+final class ChunkLexer {
+
+    static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    private final Lexer lexer;
+    private final int chunkSize;
+
+    TokenStream lex(String expression, ForkJoinPool pool) {
+        int[] starts = split(expression);
+        int count = starts.length - 1;
+        if (count == 1) return lexer.lex(expression);
+
+        LexListener listener = lexer.getListener();
+        LexEvent event = LexEvent.start();
+        long startTime = listener != null ? System.nanoTime() : 0;
+        // one grammar for all chunks and the stitch, even if the config is changed meanwhile
+        LexGrammar grammar = lexer.config.compile();
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            int from = starts[k], to = starts[k + 1];
+            tasks.add(pool.submit(() -> lexChunk(expression, from, to, grammar)));
+        }
+        Chunk[] chunks = new Chunk[count];
+        for (int k = 0; k < count; k++) {
+            chunks[k] = tasks.get(k).join();
+        }
+        TokenStream stream;
+        try {
+            stream = stitch(expression, chunks, grammar);
+        } catch (LexCompileException e) {
+            lexer.failed(listener, event, expression.length(), e.getOffset(), startTime);
+            throw e;
+        }
+        return lexer.lexed(listener, event, stream, expression.length(), startTime);
+    }
+
+    // chunk starts, ending with the length
+    private int[] split(String expression) {
+        int size = expression.length();
+        int[] starts = new int[size / chunkSize + 2];
+        int count = 1; // starts[0] = 0
+        for (int next = chunkSize; next < size; ) {
+            int lf = expression.indexOf('\n', next);
+            if (lf < 0 || lf + 1 >= size) break;
+            starts[count++] = lf + 1;
+            next = lf + 1 + chunkSize;
+        }
+        starts[count++] = size;
+        return Arrays.copyOf(starts, count);
+    }
+
+    // lex the tokens starting in [from, to), they may end after the chunk
+    private Chunk lexChunk(String expression, int from, int to, LexGrammar grammar) {
+        Chunk chunk = new Chunk(from, to);
+        Scanner scanner = new Scanner(lexer, grammar);
+        scanner.reset(expression, true);
+        int i = from;
+        while ((i = scanner.scanAny(i)) >= 0 && scanner.start < to) {
+            chunk.end = i;
+            if (scanner.token != null) {
+                chunk.buffer.add(scanner.token, scanner.start, i);
+            }
+        }
+        if (i == Scanner.INVALID && scanner.start < to) {
+            chunk.errorOffset = scanner.errorOffset;
+        }
+        return chunk;
+    }
+
+    private TokenStream stitch(String expression, Chunk[] chunks, LexGrammar grammar) {
+        SimpleTokenStream stream = new SimpleTokenStream(expression, lexer.config);
+        stream.grammar = grammar;
+        TokenBuffer buffer = stream.tokens();
+        Scanner scanner = null;
+
+        int pos = 0; // end of the last token, kept or skipped
+        for (int k = 0; k < chunks.length; ) {
+            Chunk chunk = chunks[k];
+            if (pos <= chunk.from) {
+                // no token crosses the chunk start, so the chunk is valid
+                k = adopt(chunks, k, 0, buffer, stream);
+                pos = chunk.end;
+                continue;
+            }
+
+            // the chunk starts in a token, scan again from the end of the token
+            if (scanner == null) {
+                scanner = new Scanner(lexer, grammar);
+                scanner.reset(expression, true);
+            }
+            int end = scanner.scanAny(pos);
+            if (end == Scanner.EOF) break;
+            if (end == Scanner.INVALID) {
+                return throwInvalidToken(stream, scanner.errorOffset);
+            }
+            if (scanner.token == null) {
+                pos = end;
+                continue;
+            }
+
+            int start = scanner.start;
+            while (k < chunks.length - 1 && start >= chunks[k + 1].from) k++;
+            chunk = chunks[k];
+            int index = chunk.buffer.searchStart(start);
+            if (index < chunk.buffer.size() && chunk.buffer.start(index) == start) {
+                // the same chars are scanned from here
+                k = adopt(chunks, k, index, buffer, stream);
+                pos = chunk.end;
+                continue;
+            }
+            buffer.add(scanner.token, start, end);
+            pos = end;
+        }
+        return stream;
+    }
+
+    // add the tokens from the index of the k-th chunk, return index of next chunk
+    private int adopt(Chunk[] chunks, int k, int index, TokenBuffer buffer, TokenStream stream) {
+        Chunk chunk = chunks[k];
+        buffer.addAll(chunk.buffer, index, chunk.buffer.size(), 0);
+        if (chunk.errorOffset >= 0) {
+            return throwInvalidToken(stream, chunk.errorOffset);
+        }
+        return k + 1;
+    }
+
+    private <T> T throwInvalidToken(TokenStream stream, int offset) {
+        LineIndex lineIndex = stream.getLineIndex();
+        throw lexer.config.getLexExceptionProducer().apply(stream.getExpression(), offset,
+                lineIndex.getLine(offset), lineIndex.getCol(offset));
+    }
+
+    private static class Chunk {
+
+        final int from; // first char
+        final int to; // end (exclusive) char
+        final TokenBuffer buffer = new TokenBuffer();
+        int end; // end of the last token, kept or skipped
+        int errorOffset = -1;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+            this.end = from;
+        }
+    }
+}
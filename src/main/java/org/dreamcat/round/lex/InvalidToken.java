@@ -0,0 +1,15 @@
+package org.dreamcat.round.lex;
+
+/**
+ * invalid chars kept in a diagnosed stream, so the tokens after them are lexed still
+ *
+ * @author Jerry Will
+ * @version 2022-09-13
+ * @see Lexer#diagnose(String)
+ */
+public class InvalidToken extends AbstractToken {
+
+    public InvalidToken(String rawToken) {
+        super(Type.INVALID, rawToken);
+    }
+}
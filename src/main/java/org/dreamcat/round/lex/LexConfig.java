@@ -1,10 +1,14 @@
 package org.dreamcat.round.lex;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.Accessors;
@@ -23,13 +27,18 @@ import org.dreamcat.round.exception.SyntaxCompileException;
 public class LexConfig {
 
     /**
-     * keyword to cache
+     * keyword to cache, add it by {@link #addKeyword(IdentifierToken)} to recompile the grammar
      */
     private final Map<String, IdentifierToken> keywords = new ConcurrentHashMap<>();
     /**
-     * identifier value to cache
+     * identifier value to cache, add it by {@link #addIdentifierValue(IdentifierToken)}
+     * to recompile the grammar
      */
     private final Map<String, IdentifierToken> identifierValues = new ConcurrentHashMap<>();
+    /**
+     * user-defined operator or punctuation to its token, add it by {@link #addOperator(Token)}
+     */
+    private final Map<String, Token> operators = new ConcurrentHashMap<>();
     /**
      * which strategy to determine the value type of number tokens
      */
@@ -42,6 +51,10 @@ public class LexConfig {
      * multiple line comment
      */
     private List<Pair<String, String>> multipleComments = Collections.singletonList(Pair.of("/*", "*/"));
+    /**
+     * token types which are scanned but not kept in the stream, a skipped comment is not created
+     */
+    private Set<Token.Type> skippedTypes = Collections.emptySet();
 
     // ---- ---- ---- ----    ---- ---- ---- ----    ---- ---- ---- ----
 
@@ -65,14 +78,165 @@ public class LexConfig {
      */
     protected int sampleCharCount = 1 << 8; // set to <=0 to disable it
 
+    /**
+     * compiled from the comments, keywords, identifier values, operators, skipped types
+     * and big number strategy, recompile it when they are changed
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile LexGrammar grammar;
+    // in update, keep the last grammar
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean updating;
+    // count of the changes, a grammar compiled outside the lock is kept if it is not changed
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile int version;
+
     // ==== ==== ==== ====    ==== ==== ==== ====    ==== ==== ==== ====
 
+    public LexConfig setSingleComments(List<String> singleComments) {
+        this.singleComments = singleComments;
+        invalidate();
+        return this;
+    }
+
+    public LexConfig setMultipleComments(List<Pair<String, String>> multipleComments) {
+        this.multipleComments = multipleComments;
+        invalidate();
+        return this;
+    }
+
+    public LexConfig setSkippedTypes(Set<Token.Type> skippedTypes) {
+        this.skippedTypes = skippedTypes.isEmpty() ?
+                Collections.emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(skippedTypes));
+        invalidate();
+        return this;
+    }
+
+    /**
+     * keep the tokens of the types only, skip the others
+     */
+    public LexConfig setKeptTypes(Set<Token.Type> keptTypes) {
+        Set<Token.Type> skippedTypes = EnumSet.allOf(Token.Type.class);
+        skippedTypes.removeAll(keptTypes);
+        return setSkippedTypes(skippedTypes);
+    }
+
+    public LexConfig setBigNumberStrategy(BigNumberStrategy bigNumberStrategy) {
+        this.bigNumberStrategy = bigNumberStrategy;
+        invalidate();
+        return this;
+    }
+
+    /**
+     * compile the config to an immutable grammar, which is kept until the config is changed
+     *
+     * @return the grammar which the lexers of the config use now
+     */
+    public LexGrammar compile() {
+        LexGrammar grammar;
+        while ((grammar = this.grammar) == null) {
+            int version = this.version;
+            // outside the lock, so a change does not stall the lexers on other threads
+            LexGrammar compiled = LexGrammar.compile(this);
+            synchronized (this) {
+                if (this.version == version && this.grammar == null) this.grammar = compiled;
+            }
+        }
+        return grammar;
+    }
+
+    /**
+     * change the config in a batch, then swap in the grammar compiled from all changes,
+     * the lexers use the last grammar until then and never see a part of the changes
+     *
+     * @param updater change the config, such as adding keywords
+     */
+    public LexConfig update(Consumer<LexConfig> updater) {
+        int version;
+        synchronized (this) {
+            updating = true;
+            try {
+                updater.accept(this);
+            } finally {
+                updating = false;
+            }
+            version = this.version;
+        }
+        // outside the lock as compile() does, the lexers use the last grammar until it is set
+        LexGrammar compiled = LexGrammar.compile(this);
+        synchronized (this) {
+            // else a later change drops the last grammar or sets its own one
+            if (this.version == version) this.grammar = compiled;
+        }
+        return this;
+    }
+
+    /**
+     * a breaking change: the map was modifiable, but a put into it is not seen by the grammar,
+     * so it throws {@link UnsupportedOperationException} now
+     *
+     * @return unmodifiable view of the keywords, add one by {@link #addKeyword(IdentifierToken)}
+     */
+    public Map<String, IdentifierToken> getKeywords() {
+        return Collections.unmodifiableMap(keywords);
+    }
+
+    /**
+     * a breaking change: the map was modifiable, but a put into it is not seen by the grammar,
+     * so it throws {@link UnsupportedOperationException} now
+     *
+     * @return unmodifiable view of the identifier values,
+     * add one by {@link #addIdentifierValue(IdentifierToken)}
+     */
+    public Map<String, IdentifierToken> getIdentifierValues() {
+        return Collections.unmodifiableMap(identifierValues);
+    }
+
+    /**
+     * a put into the map throws {@link UnsupportedOperationException}
+     *
+     * @return unmodifiable view of the user-defined operators, add one by {@link #addOperator(Token)}
+     */
+    public Map<String, Token> getOperators() {
+        return Collections.unmodifiableMap(operators);
+    }
+
     public void addKeyword(IdentifierToken keywordToken) {
         keywords.put(keywordToken.getIdentifier(), keywordToken);
+        invalidate();
     }
 
     public void addIdentifierValue(IdentifierToken keywordToken) {
         identifierValues.put(keywordToken.getIdentifier(), keywordToken);
+        invalidate();
+    }
+
+    /**
+     * add an operator or punctuation such as {@code =>} or {@code ??},
+     * the lexer takes the longest one, it replaces a built-in one of the same raw text
+     *
+     * @param token token of the operator, such as a {@link UserOperatorToken},
+     *              its raw text is printable ascii chars,
+     *              and does not start as an identifier, a number or a string
+     */
+    public void addOperator(Token token) {
+        String raw = token.getRaw();
+        if (raw == null || raw.isEmpty() ||
+                LexGrammar.classify(raw.charAt(0)) != LexGrammar.INVALID ||
+                !raw.chars().allMatch(c -> c > ' ' && c < 0x7f)) {
+            throw new IllegalArgumentException("invalid operator: " + raw);
+        }
+        operators.put(raw, token);
+        invalidate();
+    }
+
+    // a compile in progress sees the new version, then it compiles again
+    private synchronized void invalidate() {
+        version++;
+        if (!updating) this.grammar = null;
     }
 
     // ==== ==== ==== ====    ==== ==== ==== ====    ==== ==== ==== ====
@@ -103,7 +267,7 @@ public class LexConfig {
     private SyntaxCompileException produceSyntaxCompileException(
             TokenStream stream) {
         TokenInfo tokenInfo = stream.get();
-        if (sampleCharCount <= 0) {
+        if (sampleCharCount <= 0 || stream.getExpression() == null) {
             // no sample
             String message = String.format(
                     "You has wrong syntax in your %s, at line %d col %d",
@@ -132,26 +296,50 @@ public class LexConfig {
 
         TokenInfo left = tokenInfo, right = tokenInfo;
 
-        // find left
-        stream.mark();
+        if (stream instanceof SimpleTokenStream) {
+            // by index, the offset of the stream is not moved
+            SimpleTokenStream simple = (SimpleTokenStream) stream;
+            int index = simple.index();
+            for (int i = index - 1; i >= 0; i--) {
+                TokenInfo prev = simple.get(i);
+                if (prev.getStart() > leftMargin) {
+                    left = prev;
+                } else break;
+            }
+            // peek lexes a lazy stream ahead
+            for (int k = 1; simple.peek(k) != null; k++) {
+                TokenInfo next = simple.get(index + k);
+                if (next.getEnd() < rightMargin) {
+                    right = next;
+                } else break;
+            }
+            return expression.substring(left.getStart(), right.getEnd());
+        }
+
+        // find left, then move back to the current token
+        int moved = 0;
         while (stream.hasPrevious()) {
             stream.previous();
+            moved++;
             TokenInfo prev = stream.get();
             if (prev.getStart() > leftMargin) {
                 left = prev;
             } else break;
         }
+        for (; moved > 0; moved--) stream.next();
 
-        // find right
-        stream.reset();
+        // find right, then move back to the current token
         stream.next(); // consume the current token
+        moved = 1;
         while (stream.hasNext()) {
             TokenInfo next = stream.get();
             if (next.getEnd() < rightMargin) {
                 right = next;
             } else break;
             stream.next();
+            moved++;
         }
+        for (; moved > 0; moved--) stream.previous();
 
         return expression.substring(left.getStart(), right.getEnd());
     }
@@ -0,0 +1,35 @@
+package org.dreamcat.round.lex;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * an invalid char found in diagnosing, no exception is created for it
+ *
+ * @author Jerry Will
+ * @version 2022-09-13
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public class LexError {
+
+    final int offset; // offset of the invalid char
+    final InvalidToken token; // invalid token which the char is in
+    // lazy compute the line and col by it
+    @Getter(AccessLevel.NONE)
+    final LineIndex lineIndex;
+
+    public int getLine() {
+        return lineIndex.getLine(offset);
+    }
+
+    public int getCol() {
+        return lineIndex.getCol(offset);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("invalid character at line %d col %d", getLine(), getCol());
+    }
+}
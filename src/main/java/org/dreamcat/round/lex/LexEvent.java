@@ -0,0 +1,26 @@
+package org.dreamcat.round.lex;
+
+/**
+ * flight recorder event of a lex, a no-op on java 8,
+ * the event of java 11 or later is in META-INF/versions/11 of the jar
+ *
+ * @author Jerry Will
+ * @version 2022-09-17
+ */
+class LexEvent {
+
+    private static final LexEvent NONE = new LexEvent();
+
+    /**
+     * @return event which begins now
+     */
+    static LexEvent start() {
+        return NONE;
+    }
+
+    void lexed(Lexer lexer, TokenStream stream, int length) {
+    }
+
+    void failed(Lexer lexer, int length, int offset) {
+    }
+}
@@ -0,0 +1,252 @@
+package org.dreamcat.round.lex;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.dreamcat.common.Pair;
+import org.dreamcat.common.util.CollectionUtil;
+import org.dreamcat.common.util.StringUtil;
+import org.dreamcat.round.lex.LexConfig.BigNumberStrategy;
+
+/**
+ * immutable grammar compiled from a {@link LexConfig}, shared by all lexers of the config,
+ * a lex keeps the grammar it starts with even if the config is changed meanwhile
+ *
+ * @author Jerry Will
+ * @version 2022-08-20
+ * @see LexConfig#compile()
+ */
+public final class LexGrammar {
+
+    static final byte INVALID = 0;
+    static final byte COMMENT = 1;
+    static final byte IDENTIFIER = 2;
+    static final byte NUMBER = 3;
+    static final byte STRING = 4;
+    // a punctuation which no longer token starts with
+    static final byte PUNCTUATION = 5;
+    // walk the operator trie for the longest match
+    static final byte OPERATOR = 6;
+
+    private static final int ASCII = 128;
+
+    // kind of the leading char, COMMENT only if a comment may start with it
+    private final byte[] kinds = new byte[ASCII];
+    // kind of the leading char when no comment matches
+    private final byte[] fallbacks = new byte[ASCII];
+    private final Token[] punctuations = new Token[ASCII];
+    private final OperatorTrie operators = new OperatorTrie();
+    private final boolean[] identifierParts = new boolean[ASCII];
+    // keywords and identifier values, a keyword goes first
+    private final TokenTable<IdentifierToken> identifiers;
+    // indexed by the ordinal of the token type
+    private final boolean[] skippedTypes = new boolean[Token.Type.values().length];
+
+    final String[] singleComments;
+    final String[] multipleCommentStarts;
+    final String[] multipleCommentEnds;
+    // a comment starts with a non-ascii char, rarely
+    private final boolean nonAsciiComment;
+    final BigNumberStrategy bigNumberStrategy;
+    // length of the longest comment opener or operator
+    final int maxDelimiterWidth;
+    // canonical text of the config which the grammar is compiled from
+    final String fingerprint;
+
+    private LexGrammar(List<String> singleComments, List<Pair<String, String>> multipleComments,
+            Collection<IdentifierToken> keywords, Collection<IdentifierToken> identifierValues,
+            Collection<Token> userOperators, Collection<Token.Type> skippedTypes,
+            BigNumberStrategy bigNumberStrategy) {
+        this.singleComments = CollectionUtil.isNotEmpty(singleComments) ?
+                singleComments.stream().filter(it -> it != null && !it.isEmpty())
+                        .toArray(String[]::new) : new String[0];
+        if (CollectionUtil.isNotEmpty(multipleComments)) {
+            this.multipleCommentStarts = multipleComments.stream()
+                    .map(Pair::first).toArray(String[]::new);
+            this.multipleCommentEnds = multipleComments.stream()
+                    .map(Pair::second).toArray(String[]::new);
+        } else {
+            this.multipleCommentStarts = this.multipleCommentEnds = new String[0];
+        }
+
+        // the operators which OperatorToken.search recognizes
+        for (OperatorToken operator : OperatorToken.values()) {
+            Pair<OperatorToken, Integer> pair = OperatorToken.search(operator.getRaw(), 0);
+            if (pair != null && pair.first() == operator) operators.put(operator);
+        }
+        for (PunctuationToken punctuation : PunctuationToken.values()) {
+            operators.put(punctuation);
+        }
+        for (Token operator : userOperators) {
+            operators.put(operator);
+        }
+
+        for (char c = 0; c < ASCII; c++) {
+            byte kind = classify(c);
+            OperatorTrie.Node node = operators.root(c);
+            if (kind == INVALID && node != null) {
+                if (node.token instanceof PunctuationToken && !node.hasNext()) {
+                    kind = PUNCTUATION;
+                    punctuations[c] = node.token;
+                } else kind = OPERATOR;
+            }
+            kinds[c] = fallbacks[c] = kind;
+            identifierParts[c] = isIdentifierPart0(c);
+        }
+
+        boolean nonAscii = false;
+        for (String singleComment : this.singleComments) {
+            nonAscii |= markComment(singleComment.charAt(0));
+        }
+        for (String start : multipleCommentStarts) {
+            nonAscii |= markComment(start.charAt(0));
+        }
+        this.nonAsciiComment = nonAscii;
+
+        int width = operators.maxWidth();
+        for (String singleComment : this.singleComments) width = Math.max(width, singleComment.length());
+        for (String start : multipleCommentStarts) width = Math.max(width, start.length());
+        this.maxDelimiterWidth = width;
+
+        TokenTable<IdentifierToken> table = new TokenTable<>();
+        for (IdentifierToken keyword : keywords) table = table.put(keyword);
+        for (IdentifierToken value : identifierValues) table = table.put(value);
+        this.identifiers = table;
+
+        for (Token.Type type : skippedTypes) {
+            this.skippedTypes[type.ordinal()] = true;
+        }
+        this.bigNumberStrategy = bigNumberStrategy;
+        this.fingerprint = fingerprint(keywords, identifierValues, userOperators, skippedTypes);
+    }
+
+    static LexGrammar compile(LexConfig config) {
+        return new LexGrammar(config.getSingleComments(), config.getMultipleComments(),
+                config.getKeywords().values(), config.getIdentifierValues().values(),
+                config.getOperators().values(), config.getSkippedTypes(),
+                config.getBigNumberStrategy());
+    }
+
+    /**
+     * kind of the token starting with the char
+     */
+    byte kindOf(char c) {
+        if (c < ASCII) return kinds[c];
+        if (nonAsciiComment && isCommentStart(c)) return COMMENT;
+        return classify(c);
+    }
+
+    /**
+     * kind of the token starting with the char, if it is not a comment
+     */
+    byte fallbackOf(char c) {
+        return c < ASCII ? fallbacks[c] : classify(c);
+    }
+
+    /**
+     * the char can be a part of an identifier after its first char
+     */
+    boolean isIdentifierPart(char c) {
+        return c < ASCII ? identifierParts[c] : isIdentifierPart0(c);
+    }
+
+    Token punctuationOf(char c) {
+        return punctuations[c];
+    }
+
+    /**
+     * tokens of the type are scanned but not kept
+     */
+    boolean isSkipped(Token.Type type) {
+        return skippedTypes[type.ordinal()];
+    }
+
+    /**
+     * @return trie node of the operators starting with the char, or null
+     */
+    OperatorTrie.Node operatorOf(char c) {
+        return operators.root(c);
+    }
+
+    /**
+     * @return operator or punctuation of the raw text, or null
+     */
+    Token operatorOf(String raw) {
+        OperatorTrie.Node node = operators.root(raw.charAt(0));
+        for (int k = 1; node != null && k < raw.length(); k++) {
+            node = node.next(raw.charAt(k));
+        }
+        return node != null ? node.token : null;
+    }
+
+    /**
+     * keyword or identifier value of the chars
+     *
+     * @param hash hash of the chars, the same as {@link String#hashCode()}
+     * @return null if the chars are neither a keyword nor an identifier value
+     */
+    IdentifierToken identifierOf(CharSequence src, int start, int end, int hash) {
+        return identifiers.get(src, start, end, hash);
+    }
+
+    private boolean markComment(char c) {
+        if (c < ASCII) {
+            kinds[c] = COMMENT;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isCommentStart(char c) {
+        for (String singleComment : singleComments) {
+            if (singleComment.charAt(0) == c) return true;
+        }
+        for (String start : multipleCommentStarts) {
+            if (start.charAt(0) == c) return true;
+        }
+        return false;
+    }
+
+    // the same for the same config regardless of the order of its maps and sets
+    private String fingerprint(Collection<IdentifierToken> keywords,
+            Collection<IdentifierToken> identifierValues, Collection<Token> userOperators,
+            Collection<Token.Type> skippedTypes) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, Arrays.asList(singleComments));
+        append(sb, Arrays.asList(multipleCommentStarts));
+        append(sb, Arrays.asList(multipleCommentEnds));
+        append(sb, describe(keywords));
+        append(sb, describe(identifierValues));
+        append(sb, describe(userOperators));
+        append(sb, skippedTypes.stream().map(Enum::name).sorted().collect(Collectors.toList()));
+        return sb.append(bigNumberStrategy).toString();
+    }
+
+    private static List<String> describe(Collection<? extends Token> tokens) {
+        return tokens.stream().map(token -> {
+            String s = token.getClass().getName() + ' ' + token.getRaw();
+            if (token instanceof ValueToken) s += ' ' + String.valueOf(((ValueToken<?>) token).getValue());
+            return s;
+        }).sorted().collect(Collectors.toList());
+    }
+
+    // length-prefixed, so no separator is confused with the text
+    private static void append(StringBuilder sb, List<String> list) {
+        sb.append(list.size()).append('[');
+        for (String s : list) sb.append(s.length()).append(':').append(s);
+        sb.append(']');
+    }
+
+    private static boolean isIdentifierPart0(char c) {
+        return StringUtil.isFirstVariableChar(c) || StringUtil.isNumberChar(c);
+    }
+
+    // keep the same precedence as the lexer probes them, operators go last
+    static byte classify(char c) {
+        if (StringUtil.isFirstVariableChar(c)) return IDENTIFIER;
+        if (StringUtil.isNumberChar(c)) return NUMBER;
+        if (c == '\'' || c == '"' || c == '`') return STRING;
+        return INVALID;
+    }
+}
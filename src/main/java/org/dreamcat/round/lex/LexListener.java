@@ -0,0 +1,33 @@
+package org.dreamcat.round.lex;
+
+/**
+ * listen the lexes of a lexer, such as to bridge them to a metrics system,
+ * it is called by the lexing thread, so it must be thread-safe and cheap
+ *
+ * @author Jerry Will
+ * @version 2022-09-16
+ * @see Lexer#setListener(LexListener)
+ * @see LexMetrics
+ */
+public interface LexListener {
+
+    /**
+     * an expression is lexed, or diagnosed
+     *
+     * @param stream stream of the tokens, its offset must not be changed
+     * @param length length of the expression, byte count of a UTF-8 input
+     * @param nanos  time to lex it in nanoseconds
+     */
+    default void onLex(TokenStream stream, int length, long nanos) {
+    }
+
+    /**
+     * an expression has an invalid char, then the lex fails
+     *
+     * @param length length of the expression, byte count of a UTF-8 input
+     * @param offset offset of the invalid char
+     * @param nanos  time until the invalid char in nanoseconds
+     */
+    default void onError(int length, int offset, long nanos) {
+    }
+}
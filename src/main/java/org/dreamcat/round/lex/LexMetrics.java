@@ -0,0 +1,181 @@
+package org.dreamcat.round.lex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * counters of the lexes of a lexer, set it by {@code lexer.setListener(new LexMetrics(lexer))},
+ * the latencies are grouped by the power of 2 of the expression length,
+ * so a slow size or a pathological expression stands out by the max
+ *
+ * @author Jerry Will
+ * @version 2022-09-16
+ */
+public class LexMetrics implements LexListener {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final int BUCKETS = 32;
+
+    private final Lexer lexer;
+    private final LongAdder lexCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder charCount = new LongAdder();
+    private final LongAdder tokenCount = new LongAdder();
+    private final LongAdder[] typeCounts = newAdders(TYPES.length);
+    // indexed by the bit length of the expression length
+    private final LongAdder[] bucketCounts = newAdders(BUCKETS);
+    private final LongAdder[] bucketNanos = newAdders(BUCKETS);
+    private final LongAccumulator[] bucketMaxNanos = new LongAccumulator[BUCKETS];
+
+    /**
+     * @param lexer lexer to report the stats of its caches
+     */
+    public LexMetrics(Lexer lexer) {
+        this.lexer = lexer;
+        for (int k = 0; k < BUCKETS; k++) {
+            bucketMaxNanos[k] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    @Override
+    public void onLex(TokenStream stream, int length, long nanos) {
+        lexCount.increment();
+        record(length, nanos);
+        if (!(stream instanceof SimpleTokenStream)) return;
+
+        // count in the stack first, then one add for each type
+        TokenBuffer buffer = ((SimpleTokenStream) stream).tokens();
+        int size = buffer.size();
+        int[] counts = new int[TYPES.length];
+        for (int i = 0; i < size; i++) {
+            counts[buffer.type(i).ordinal()]++;
+        }
+        tokenCount.add(size);
+        for (int k = 0; k < counts.length; k++) {
+            if (counts[k] > 0) typeCounts[k].add(counts[k]);
+        }
+    }
+
+    @Override
+    public void onError(int length, int offset, long nanos) {
+        errorCount.increment();
+        record(length, nanos);
+    }
+
+    /**
+     * @return count of the lexed expressions, including the failed ones
+     */
+    public long getLexCount() {
+        return lexCount.sum() + errorCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    /**
+     * @return ratio of the failed lexes, or 0 if no lex
+     */
+    public double getErrorRate() {
+        long errors = errorCount.sum(), total = lexCount.sum() + errors;
+        return total == 0 ? 0 : (double) errors / total;
+    }
+
+    /**
+     * @return count of the chars in all expressions, bytes of a UTF-8 input
+     */
+    public long getCharCount() {
+        return charCount.sum();
+    }
+
+    /**
+     * @return count of the kept tokens in the lexed expressions
+     */
+    public long getTokenCount() {
+        return tokenCount.sum();
+    }
+
+    public long getTokenCount(Token.Type type) {
+        return typeCounts[type.ordinal()].sum();
+    }
+
+    /**
+     * @return chars lexed per second in the lexing time, which is summed by all threads
+     */
+    public double getCharsPerSecond() {
+        long nanos = 0;
+        for (LongAdder adder : bucketNanos) nanos += adder.sum();
+        return nanos == 0 ? 0 : charCount.sum() * 1e9 / nanos;
+    }
+
+    public TokenCacheStats getIdentifierCacheStats() {
+        return lexer.getIdentifierCache().getStats();
+    }
+
+    public TokenCacheStats getNumberCacheStats() {
+        return lexer.getNumberCache().getStats();
+    }
+
+    /**
+     * @return latencies of the lexed expression sizes, empty sizes are omitted
+     */
+    public List<Latency> getLatencies() {
+        List<Latency> latencies = new ArrayList<>();
+        for (int k = 0; k < BUCKETS; k++) {
+            long count = bucketCounts[k].sum();
+            if (count == 0) continue;
+            latencies.add(new Latency(k == 0 ? 0 : 1 << (k - 1), (1 << k) - 1,
+                    count, bucketNanos[k].sum(), bucketMaxNanos[k].get()));
+        }
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lex %d, error %d, char %d, token %d, identifier cache: %s, number cache: %s",
+                getLexCount(), getErrorCount(), getCharCount(), getTokenCount(),
+                getIdentifierCacheStats(), getNumberCacheStats());
+    }
+
+    private void record(int length, long nanos) {
+        charCount.add(length);
+        int bucket = 32 - Integer.numberOfLeadingZeros(length);
+        bucketCounts[bucket].increment();
+        bucketNanos[bucket].add(nanos);
+        bucketMaxNanos[bucket].accumulate(nanos);
+    }
+
+    private static LongAdder[] newAdders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int k = 0; k < size; k++) adders[k] = new LongAdder();
+        return adders;
+    }
+
+    /**
+     * latency of the expressions whose length is in [minLength, maxLength]
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class Latency {
+
+        private final int minLength;
+        private final int maxLength;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        public long getMeanNanos() {
+            return totalNanos / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%d, %d]: count %d, mean %dns, max %dns",
+                    minLength, maxLength, count, getMeanNanos(), maxNanos);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.dreamcat.round.lex;
+
+import java.util.Collections;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.dreamcat.round.exception.LexCompileException;
+
+/**
+ * result of an expression lexed in a batch or diagnosed
+ *
+ * @author Jerry Will
+ * @version 2022-09-07
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class LexResult {
+
+    private final String expression;
+    private final TokenStream stream; // null if failed
+    private final LexCompileException error; // null if succeeded
+    private final List<LexError> errors; // diagnosed, empty if none
+
+    public boolean isSuccess() {
+        return error == null && errors.isEmpty();
+    }
+
+    static LexResult of(String expression, TokenStream stream) {
+        return new LexResult(expression, stream, null, Collections.emptyList());
+    }
+
+    static LexResult of(String expression, LexCompileException error) {
+        return new LexResult(expression, null, error, Collections.emptyList());
+    }
+
+    static LexResult of(String expression, TokenStream stream, List<LexError> errors) {
+        return new LexResult(expression, stream, null, errors);
+    }
+}
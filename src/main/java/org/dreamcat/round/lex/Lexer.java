@@ -1,188 +1,354 @@
 package org.dreamcat.round.lex;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import lombok.RequiredArgsConstructor;
-import org.dreamcat.common.Pair;
-import org.dreamcat.common.text.NumberSearcher;
-import org.dreamcat.common.text.StringSearcher;
-import org.dreamcat.common.util.CollectionUtil;
-import org.dreamcat.common.util.NumberUtil;
-import org.dreamcat.common.util.StringUtil;
-import org.dreamcat.round.lex.LexConfig.BigNumberStrategy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import lombok.Getter;
+import lombok.Setter;
+import org.dreamcat.round.exception.LexCompileException;
 
 /**
  * @author Jerry Will
  * @since 2021-07-04
  */
-@RequiredArgsConstructor
 public final class Lexer {
 
     final LexConfig config;
-    final Map<String, IdentifierToken> identifierCache = new ConcurrentHashMap<>();
-    final Map<String, NumberToken> numberCache = new ConcurrentHashMap<>();
+    @Getter
+    final TokenCache<IdentifierToken> identifierCache;
+    @Getter
+    final TokenCache<NumberToken> numberCache;
+    @Getter
+    final TokenCache<StringToken> stringCache; // null if not interned
+    /**
+     * listen the lexes of strings and bytes, null not to listen them at no cost
+     */
+    @Getter
+    @Setter
+    private volatile LexListener listener;
+
+    public Lexer(LexConfig config) {
+        this(config, TokenCache.unbounded(), TokenCache.unbounded());
+    }
+
+    public Lexer(LexConfig config,
+            TokenCache<IdentifierToken> identifierCache, TokenCache<NumberToken> numberCache) {
+        this(config, identifierCache, numberCache, null);
+    }
+
+    /**
+     * @param identifierCache cache of the identifiers which are not keywords or identifier values
+     * @param numberCache     cache of the number literals
+     * @param stringCache     cache to intern the string literals, or null not to intern them,
+     *                        then a string literal is a lazy slice of its expression
+     * @see TokenCache#lru(int)
+     * @see TokenCache#weak()
+     */
+    public Lexer(LexConfig config,
+            TokenCache<IdentifierToken> identifierCache, TokenCache<NumberToken> numberCache,
+            TokenCache<StringToken> stringCache) {
+        this.config = config;
+        this.identifierCache = identifierCache;
+        this.numberCache = numberCache;
+        this.stringCache = stringCache;
+    }
 
     public void clear() {
         identifierCache.clear();
         numberCache.clear();
+        if (stringCache != null) stringCache.clear();
     }
 
     public TokenStream lex(String expression) {
-        SimpleTokenStream stream = new SimpleTokenStream(expression, config);
+        return lex(expression, new SimpleTokenStream(expression, config));
+    }
 
-        int size = expression.length(), j;
-        outer:
-        for (int i = 0; i < size; i++) {
-            char c = expression.charAt(i);
-            if (c <= ' ') continue;
-
-            // comment
-            List<String> singleComments = config.getSingleComments();
-            if (CollectionUtil.isNotEmpty(singleComments)) {
-                for (String singleComment : singleComments) {
-                    char first = singleComment.charAt(0);
-                    int width = singleComment.length();
-                    if (c == first && i < size - width && expression.substring(i, i + width).equals(singleComment)) {
-                        for (j = i + width; j < size && (c = expression.charAt(j)) != '\n'; j++) ;
-                        CommentToken token = CommentToken.of(expression.substring(i, j), singleComment);
-                        stream.add(TokenInfo.of(token, i, j));
-                        i = j;
-                        if (c == '\n') continue outer; // found \n
-                        else break outer; // found EOF
-                    }
-                }
-            }
+    /**
+     * lex the expression on demand, a token is lexed only when the stream requires it,
+     * such as to look at the leading tokens of a large expression,
+     * an invalid char is thrown as {@link #lex(String)} does, but when the stream reaches it
+     *
+     * @return a stream which lexes next token when it is required
+     */
+    public TokenStream lexLazily(String expression) {
+        return new SimpleTokenStream(expression, config, newScanner());
+    }
 
-            List<Pair<String, String>> multipleComments = config.getMultipleComments();
-            if (CollectionUtil.isNotEmpty(multipleComments)) {
-                for (Pair<String, String> multipleComment : multipleComments) {
-                    String start = multipleComment.first(), end = multipleComment.second();
-                    char first = start.charAt(0), last = end.charAt(0);
-                    int startWidth = start.length(), endWidth = end.length(), lastEnd = size - endWidth;
-                    if (c == first && i < size - startWidth && expression.substring(i, i + startWidth).equals(start)) {
-                        for (j = i + startWidth; j <= lastEnd; j++) {
-                            if (expression.charAt(j) == last && expression.substring(j, j + endWidth).equals(end)) {
-                                CommentToken token = CommentToken.of(
-                                        expression.substring(i, j += endWidth), start, end);
-                                stream.add(TokenInfo.of(token, i, j));
-                                i = j;
-                                continue outer;
-                            }
-                        }
-                        return throwInvalidToken(expression, i);
-                    }
-                }
-            }
+    /**
+     * lex the expression to the tokens which can be read by threads at the same time
+     *
+     * @return tokens to read by {@link TokenArray#stream()} in each thread
+     */
+    public TokenArray lexArray(String expression) {
+        return ((SimpleTokenStream) lex(expression)).toArray();
+    }
 
-            // identifier or identifier value
-            if (StringUtil.isFirstVariableChar(c)) {
-                String v = StringSearcher.searchVar(expression, i);
-                Token token = config.getKeywords().get(v);
-                if (token == null) {
-                    token = config.getIdentifierValues().get(v);
-                    if (token == null) {
-                        token = identifierCache.computeIfAbsent(v, IdentifierToken::new);
-                    }
-                }
-                stream.add(TokenInfo.of(token, i, i + v.length()));
-                i += v.length() - 1;
-                continue;
-            }
+    /**
+     * lex the expressions in parallel on the common pool
+     *
+     * @see #lexAll(Collection, Executor)
+     */
+    public List<LexResult> lexAll(Collection<String> expressions) {
+        return lexAll(expressions, ForkJoinPool.commonPool());
+    }
 
-            // number
-            if (StringUtil.isNumberChar(c)) {
-                Pair<Integer, Boolean> pair = NumberSearcher.search(expression, i);
-                if (pair == null) {
-                    return throwInvalidToken(expression, size - 1);
-                }
-                String value = expression.substring(i, pair.first());
-                Number num = parseNumber(value, pair.second());
-
-                NumberToken token = numberCache.computeIfAbsent(
-                        value, it -> new NumberToken(num, value));
-                stream.add(TokenInfo.of(token, i, pair.first()));
-                i += value.length() - 1;
-                continue;
+    /**
+     * lex the expressions in parallel, an invalid expression does not stop the others
+     *
+     * @param expressions expressions to lex
+     * @param executor    executor to run the batches of expressions, such as a virtual thread executor
+     * @return results in the order of the expressions
+     */
+    public List<LexResult> lexAll(Collection<String> expressions, Executor executor) {
+        return lexAll(expressions, executor, false);
+    }
+
+    /**
+     * lex the expression without throwing an exception, an invalid char is reported in the result,
+     * and the invalid chars are kept as an {@link InvalidToken} in the stream, then the lex goes on
+     *
+     * @return result with the stream and the errors
+     */
+    public LexResult diagnose(String expression) {
+        return diagnose(expression, newScanner());
+    }
+
+    /**
+     * diagnose the expressions in parallel
+     *
+     * @see #diagnose(String)
+     * @see #lexAll(Collection, Executor)
+     */
+    public List<LexResult> diagnoseAll(Collection<String> expressions, Executor executor) {
+        return lexAll(expressions, executor, true);
+    }
+
+    private List<LexResult> lexAll(Collection<String> expressions, Executor executor, boolean diagnose) {
+        String[] array = expressions.toArray(new String[0]);
+        LexResult[] results = new LexResult[array.length];
+        int tasks = Runtime.getRuntime().availableProcessors() << 2;
+        int batchSize = Math.max((array.length + tasks - 1) / tasks, 1);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks);
+        for (int from = 0; from < array.length; from += batchSize) {
+            int start = from, end = Math.min(from + batchSize, array.length);
+            futures.add(CompletableFuture.runAsync(
+                    () -> lexAll(array, start, end, results, diagnose), executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw e;
+        }
+        return Arrays.asList(results);
+    }
 
-            // string
-            if (c == '\'' || c == '"' || c == '`') {
-                String value = StringSearcher.searchLiteral(expression, i);
-                if (value == null) {
-                    return throwInvalidToken(expression, size - 1);
-                }
-                StringToken token;
-                int k;
-                if (c == '\'') {
-                    token = StringToken.ofSingle(value);
-                } else if (c == '"') {
-                    token = StringToken.ofDouble(value);
-                } else {
-                    token = StringToken.ofBacktick(value);
-                }
-                stream.add(TokenInfo.of(token, i, i + value.length() + 2));
-                i += value.length() + 1;
-                continue;
+    /**
+     * lex a large expression in chunks in parallel, which are split at newlines,
+     * the result is the same as {@link #lex(String)}
+     *
+     * @param pool pool to lex the chunks
+     * @return stream of the whole expression
+     */
+    public TokenStream lex(String expression, ForkJoinPool pool) {
+        return new ChunkLexer(this, ChunkLexer.DEFAULT_CHUNK_SIZE).lex(expression, pool);
+    }
+
+    /**
+     * lex the expression after an edit, only the tokens around the edit are scanned again,
+     * the tokens after the edit are reused with shifted offsets once the scanner is on them
+     *
+     * @param stream   stream lexed from the expression before the edit
+     * @param offset   offset of the edit in the old expression
+     * @param removed  count of chars removed at the offset
+     * @param inserted chars inserted at the offset
+     * @return stream of the edited expression, which is lexed again fully
+     * if the stream is lexed by an old grammar of the config
+     * @throws IllegalArgumentException if the stream has no expression,
+     *                                  such as one lexed from bytes or a reader
+     */
+    public TokenStream relex(TokenStream stream, int offset, int removed, String inserted) {
+        String old = stream.getExpression();
+        if (old == null) {
+            throw new IllegalArgumentException("no expression to relex, the stream is lexed from bytes or a reader");
+        }
+        String expression = old.substring(0, offset) + inserted + old.substring(offset + removed);
+        LexGrammar grammar = config.compile();
+        // the old tokens may be lexed otherwise by the current grammar
+        if (!(stream instanceof SimpleTokenStream) || ((SimpleTokenStream) stream).grammar != grammar) {
+            return lex(expression);
+        }
+
+        LexListener listener = this.listener;
+        LexEvent event = LexEvent.start();
+        long startTime = listener != null ? System.nanoTime() : 0;
+        TokenBuffer tokens = ((SimpleTokenStream) stream).tokens();
+        SimpleTokenStream result = new SimpleTokenStream(expression, config);
+        result.grammar = grammar;
+        int size = tokens.size(), delta = inserted.length() - removed;
+
+        // the scanner reads one char after a token to find its end,
+        // and a comment opener or an operator from its start, so both must be before the edit
+        int first = Math.min(tokens.searchEnd(offset - 1),
+                tokens.searchStart(offset - grammar.maxDelimiterWidth + 1));
+        result.tokens().addAll(tokens, 0, first, 0);
+        // old tokens after the edit
+        int next = tokens.searchStart(offset + removed);
+
+        Scanner scanner = new Scanner(this, grammar);
+        scanner.reset(expression, true);
+        int i = first > 0 ? tokens.end(first - 1) : 0;
+        while ((i = scanner.scan(i)) >= 0) {
+            int start = scanner.start;
+            while (next < size && tokens.start(next) + delta < start) next++;
+            if (next < size && tokens.start(next) + delta == start) {
+                // the same chars are scanned from here
+                result.tokens().addAll(tokens, next, size, delta);
+                return lexed(listener, event, result, expression.length(), startTime);
             }
+            result.add(scanner.token, start, i);
+        }
+        if (i == Scanner.INVALID) {
+            failed(listener, event, expression.length(), scanner.errorOffset, startTime);
+            return throwInvalidToken(result, scanner.errorOffset);
+        }
+        return lexed(listener, event, result, expression.length(), startTime);
+    }
+
+    /**
+     * lex UTF-8 bytes without decoding them to a string, only the tokens are decoded,
+     * the offsets of the tokens are byte offsets from the position of the buffer
+     *
+     * @param utf8 heap, direct or mapped buffer, its position is not changed
+     * @return a stream with no expression
+     * @see java.nio.channels.FileChannel#map
+     */
+    public TokenStream lex(ByteBuffer utf8) {
+        Utf8Source source = new Utf8Source(utf8);
+        return lex(source, new SimpleTokenStream(source, config));
+    }
 
-            // punctuation
-            PunctuationToken punctuationToken = PunctuationToken.search(c);
-            if (punctuationToken != null) {
-                stream.add(TokenInfo.of(punctuationToken, i, i + 1));
+    /**
+     * lex the reader on demand, only a window of chars and a few tokens are kept in memory,
+     * the window grows only if a token is larger than it
+     *
+     * @param reader input, closed by the caller
+     * @return a stream which lexes next token when it is required
+     */
+    public TokenStream lex(Reader reader) {
+        return lex(reader, ReaderTokenStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param reader     input, closed by the caller
+     * @param bufferSize initial size of the char window
+     * @return a stream which lexes next token when it is required
+     */
+    public TokenStream lex(Reader reader, int bufferSize) {
+        return new ReaderTokenStream(reader, bufferSize, newScanner(), config);
+    }
+
+    Scanner newScanner() {
+        return new Scanner(this, config.compile());
+    }
+
+    // one scanner for a batch of expressions
+    private void lexAll(String[] expressions, int start, int end, LexResult[] results,
+            boolean diagnose) {
+        Scanner scanner = newScanner();
+        for (int i = start; i < end; i++) {
+            String expression = expressions[i];
+            if (diagnose) {
+                results[i] = diagnose(expression, scanner);
                 continue;
             }
+            try {
+                TokenStream stream = lex(expression,
+                        new SimpleTokenStream(expression, config), scanner);
+                results[i] = LexResult.of(expression, stream);
+            } catch (LexCompileException e) {
+                results[i] = LexResult.of(expression, e);
+            }
+        }
+    }
+
+    private LexResult diagnose(String expression, Scanner scanner) {
+        LexListener listener = this.listener;
+        LexEvent event = LexEvent.start();
+        long startTime = listener != null ? System.nanoTime() : 0;
+        SimpleTokenStream stream = new SimpleTokenStream(expression, config);
+        stream.grammar = scanner.table;
+        scanner.reset(expression, true);
 
-            // operator
-            Pair<OperatorToken, Integer> pair = OperatorToken.search(expression, i);
-            if (pair != null) {
-                stream.add(TokenInfo.of(pair.first(), i, pair.second()));
-                i = pair.second() - 1;
+        List<LexError> errors = null;
+        int i = 0, end;
+        while ((end = scanner.scan(i)) != Scanner.EOF) {
+            if (end >= 0) {
+                stream.add(scanner.token, scanner.start, end);
+                i = end;
                 continue;
             }
+            // invalid
+            int start = scanner.start;
+            i = scanner.errorEnd;
+            InvalidToken token = new InvalidToken(expression.substring(start, i));
+            stream.add(token, start, i);
+            if (errors == null) errors = new ArrayList<>();
+            errors.add(new LexError(scanner.errorOffset, token, stream.getLineIndex()));
+        }
+        lexed(listener, event, stream, expression.length(), startTime);
+        return LexResult.of(expression, stream,
+                errors != null ? errors : Collections.emptyList());
+    }
+
+    private TokenStream lex(CharSequence source, SimpleTokenStream stream) {
+        return lex(source, stream, newScanner());
+    }
 
-            throwInvalidToken(expression, i);
+    private TokenStream lex(CharSequence source, SimpleTokenStream stream, Scanner scanner) {
+        LexListener listener = this.listener;
+        LexEvent event = LexEvent.start();
+        long startTime = listener != null ? System.nanoTime() : 0;
+        stream.grammar = scanner.table;
+        scanner.reset(source, true);
+
+        int i = 0;
+        while ((i = scanner.scan(i)) >= 0) {
+            stream.add(scanner.token, scanner.start, i);
+        }
+        if (i == Scanner.INVALID) {
+            failed(listener, event, source.length(), scanner.errorOffset, startTime);
+            return throwInvalidToken(stream, scanner.errorOffset);
         }
+        return lexed(listener, event, stream, source.length(), startTime);
+    }
 
+    // report a lex to the listener and the flight recorder
+    TokenStream lexed(LexListener listener, LexEvent event, TokenStream stream, int length, long startTime) {
+        event.lexed(this, stream, length);
+        if (listener != null) listener.onLex(stream, length, System.nanoTime() - startTime);
         return stream;
     }
 
-    private Number parseNumber(String value, boolean floating) {
-        BigNumberStrategy bns = config.getBigNumberStrategy();
-        if (bns == BigNumberStrategy.NONE) {
-            return NumberUtil.parseNumber(value, floating);
-        } else {
-            if (floating) {
-                BigDecimal bigNum = new BigDecimal(value);
-                if (bns == BigNumberStrategy.RANGE &&
-                        NumberUtil.isDoubleRange(bigNum)) {
-                    return bigNum.doubleValue();
-                } else return bigNum;
-            } else {
-                BigInteger bigNum = new BigInteger(value);
-                if (bns == BigNumberStrategy.RANGE && NumberUtil.isLongRange(bigNum)) {
-                    if (NumberUtil.isIntRange(bigNum)) {
-                        return bigNum.intValue();
-                    } else {
-                        return bigNum.longValue();
-                    }
-                } else return bigNum;
-            }
-        }
+    void failed(LexListener listener, LexEvent event, int length, int offset, long startTime) {
+        event.failed(this, length, offset);
+        if (listener != null) listener.onError(length, offset, System.nanoTime() - startTime);
     }
 
-    private <T> T throwInvalidToken(String expression, int offset) {
-        int line = 1, col = 1;
-        for (int i = 0; i <= offset; i++) {
-            char c = expression.charAt(i);
-            if (c != '\n') col++;
-            else {
-                line++;
-                col = 1;
-            }
-        }
-        throw config.getLexExceptionProducer().apply(expression, offset, line, col);
+    private <T> T throwInvalidToken(TokenStream stream, int offset) {
+        LineIndex lineIndex = stream.getLineIndex();
+        throw config.getLexExceptionProducer().apply(stream.getExpression(), offset,
+                lineIndex.getLine(offset), lineIndex.getCol(offset));
     }
 }
@@ -0,0 +1,120 @@
+package org.dreamcat.round.lex;
+
+import java.util.Arrays;
+
+/**
+ * offset to line and col of an expression,
+ * the line starts are scanned on the first query only,
+ * the col counts UTF-16 chars as {@link String#length()} does, so a supplementary char is 2 cols,
+ * for UTF-8 input the offset is a byte offset but the col still counts UTF-16 chars
+ *
+ * @author Jerry Will
+ * @version 2022-08-21
+ */
+public final class LineIndex {
+
+    private final CharSequence expression; // null if the line starts are given
+    private final int firstLineNo; // line of the first line
+    private final int firstCol; // col of the first char
+    private volatile int[] lineStarts; // lazy compute
+
+    private LineIndex(CharSequence expression, int firstLineNo, int firstCol, int[] lineStarts) {
+        this.expression = expression;
+        this.firstLineNo = firstLineNo;
+        this.firstCol = firstCol;
+        this.lineStarts = lineStarts;
+    }
+
+    public static LineIndex of(String expression) {
+        return of(expression, 1, 1);
+    }
+
+    public static LineIndex of(String expression, int firstLineNo, int firstCol) {
+        return new LineIndex(expression, firstLineNo, firstCol, null);
+    }
+
+    static LineIndex of(CharSequence source, int firstLineNo, int firstCol) {
+        return new LineIndex(source, firstLineNo, firstCol, null);
+    }
+
+    // without the expression
+    static LineIndex of(int[] lineStarts, int firstLineNo, int firstCol) {
+        return new LineIndex(null, firstLineNo, firstCol, lineStarts);
+    }
+
+    /**
+     * @param offset offset in the expression, the length is allowed
+     * @return line of the offset, start with the first line no
+     */
+    public int getLine(int offset) {
+        return firstLineNo + search(offset);
+    }
+
+    /**
+     * @param offset offset in the expression, the length is allowed
+     * @return 1-based col of the offset, the first line starts with the first col
+     */
+    public int getCol(int offset) {
+        int index = search(offset);
+        int lineStart = lineStarts[index];
+        int width = expression instanceof Utf8Source ?
+                ((Utf8Source) expression).charCount(lineStart, offset) : offset - lineStart;
+        return (index == 0 ? firstCol : 1) + width;
+    }
+
+    /**
+     * @return line count of the expression
+     */
+    public int getLineCount() {
+        return lineStarts().length;
+    }
+
+    int getFirstLineNo() {
+        return firstLineNo;
+    }
+
+    int getFirstCol() {
+        return firstCol;
+    }
+
+    int[] getLineStarts() {
+        return lineStarts();
+    }
+
+    // index of the line where the offset is
+    private int search(int offset) {
+        int[] starts = lineStarts();
+        int i = Arrays.binarySearch(starts, offset);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private int[] lineStarts() {
+        int[] starts = lineStarts;
+        if (starts == null) {
+            lineStarts = starts = scan(expression);
+        }
+        return starts;
+    }
+
+    private static int[] scan(CharSequence expression) {
+        int[] starts = new int[16];
+        int count = 1; // starts[0] = 0
+        for (int i = indexOfLf(expression, 0); i >= 0; i = indexOfLf(expression, i + 1)) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count << 1);
+            }
+            starts[count++] = i + 1;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    private static int indexOfLf(CharSequence expression, int from) {
+        if (expression instanceof String) {
+            return ((String) expression).indexOf('\n', from);
+        }
+        for (int i = from, size = expression.length(); i < size; i++) {
+            if (expression.charAt(i) == '\n') return i;
+        }
+        return -1;
+    }
+}
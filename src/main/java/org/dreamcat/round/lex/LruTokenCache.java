@@ -0,0 +1,162 @@
+package org.dreamcat.round.lex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * least recently used tokens in segments by the hash, each segment is locked by itself,
+ * so the threads lexing at the same time seldom wait for each other,
+ * the evicted token is the least recently used one of its segment
+ *
+ * @author Jerry Will
+ * @version 2022-08-30
+ */
+class LruTokenCache<T extends Token> extends AbstractTokenCache<T> {
+
+    // a small cache is one segment, which is exact
+    private static final int MIN_SEGMENT_SIZE = 64;
+    private static final int MAX_SEGMENTS = 16;
+
+    private final List<Segment<T>> segments;
+    private final int mask;
+
+    LruTokenCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maximumSize / MIN_SEGMENT_SIZE)));
+        this.segments = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            // the sizes sum to the maximum size
+            segments.add(new Segment<>(maximumSize / count + (k < maximumSize % count ? 1 : 0), evictions));
+        }
+        this.mask = count - 1;
+    }
+
+    @Override
+    public T get(String raw, Function<String, ? extends T> factory) {
+        Segment<T> segment = segmentOf(raw.hashCode());
+        T token;
+        synchronized (segment) {
+            token = segment.get(raw);
+        }
+        if (token != null) {
+            hits.increment();
+            return token;
+        }
+        return miss(segment, raw, factory);
+    }
+
+    @Override
+    public T get(CharSequence src, int start, int end, int hash,
+            Function<String, ? extends T> factory) {
+        Segment<T> segment = segmentOf(hash);
+        T token;
+        synchronized (segment) {
+            token = segment.get(src, start, end, hash);
+        }
+        if (token != null) {
+            hits.increment();
+            return token;
+        }
+        return miss(segment, src.subSequence(start, end).toString(), factory);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    int size() {
+        int size = 0;
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private T miss(Segment<T> segment, String raw, Function<String, ? extends T> factory) {
+        misses.increment();
+        // create it out of the lock
+        T token = factory.apply(raw);
+        synchronized (segment) {
+            T old = segment.putIfAbsent(raw, token);
+            return old != null ? old : token;
+        }
+    }
+
+    private Segment<T> segmentOf(int hash) {
+        return segments.get((hash ^ (hash >>> 16)) & mask);
+    }
+
+    // keyed by the raw text, a range of chars is looked up by the probe
+    private static class Segment<T extends Token> extends LinkedHashMap<Object, T> {
+
+        private final int maximumSize;
+        private final LongAdder evictions;
+        // reused under the lock of the segment
+        private final Probe probe = new Probe();
+
+        Segment(int maximumSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+            this.evictions = evictions;
+        }
+
+        T get(CharSequence src, int start, int end, int hash) {
+            probe.src = src;
+            probe.start = start;
+            probe.end = end;
+            probe.hash = hash;
+            try {
+                return get(probe);
+            } finally {
+                probe.src = null;
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, T> eldest) {
+            if (size() <= maximumSize) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    // equal to the raw text of the chars, only as the argument of a lookup, never put as a key
+    private static final class Probe {
+
+        CharSequence src;
+        int start;
+        int end;
+        int hash;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof String)) return false;
+            String raw = (String) o;
+            int length = end - start;
+            if (raw.length() != length) return false;
+            for (int k = 0; k < length; k++) {
+                if (raw.charAt(k) != src.charAt(start + k)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
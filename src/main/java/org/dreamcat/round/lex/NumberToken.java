@@ -9,4 +9,105 @@ public class NumberToken extends ValueToken<Number> {
     public NumberToken(Number value, String rawToken) {
         super(value, Type.NUMBER, rawToken);
     }
+
+    public static NumberToken of(int value, String rawToken) {
+        return new IntNumberToken(value, rawToken);
+    }
+
+    public static NumberToken of(long value, String rawToken) {
+        return new LongNumberToken(value, rawToken);
+    }
+
+    public static NumberToken of(double value, String rawToken) {
+        return new DoubleNumberToken(value, rawToken);
+    }
+
+    public int intValue() {
+        return value.intValue();
+    }
+
+    public long longValue() {
+        return value.longValue();
+    }
+
+    public double doubleValue() {
+        return value.doubleValue();
+    }
+
+    // ---- ---- ---- ----    ---- ---- ---- ----    ---- ---- ---- ----
+
+    private static final class IntNumberToken extends NumberToken {
+
+        private final int primitive;
+
+        IntNumberToken(int value, String rawToken) {
+            super(value, rawToken);
+            this.primitive = value;
+        }
+
+        @Override
+        public int intValue() {
+            return primitive;
+        }
+
+        @Override
+        public long longValue() {
+            return primitive;
+        }
+
+        @Override
+        public double doubleValue() {
+            return primitive;
+        }
+    }
+
+    private static final class LongNumberToken extends NumberToken {
+
+        private final long primitive;
+
+        LongNumberToken(long value, String rawToken) {
+            super(value, rawToken);
+            this.primitive = value;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) primitive;
+        }
+
+        @Override
+        public long longValue() {
+            return primitive;
+        }
+
+        @Override
+        public double doubleValue() {
+            return primitive;
+        }
+    }
+
+    private static final class DoubleNumberToken extends NumberToken {
+
+        private final double primitive;
+
+        DoubleNumberToken(double value, String rawToken) {
+            super(value, rawToken);
+            this.primitive = value;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) primitive;
+        }
+
+        @Override
+        public long longValue() {
+            return (long) primitive;
+        }
+
+        @Override
+        public double doubleValue() {
+            return primitive;
+        }
+    }
 }
@@ -85,7 +85,12 @@ public enum OperatorToken implements Token {
         return equals(AND) || equals(OR);
     }
 
+    // kept for the callers compiled against it
     public static Pair<OperatorToken, Integer> search(String sql, int offset) {
+        return search((CharSequence) sql, offset);
+    }
+
+    public static Pair<OperatorToken, Integer> search(CharSequence sql, int offset) {
         char c = sql.charAt(offset);
         int size = sql.length();
         if (c == '.') {
@@ -0,0 +1,87 @@
+package org.dreamcat.round.lex;
+
+import java.util.Arrays;
+
+/**
+ * trie of the operators and punctuations, indexed by ascii chars,
+ * the scanner walks it for the longest match
+ *
+ * @author Jerry Will
+ * @version 2022-09-11
+ */
+final class OperatorTrie {
+
+    private static final int ASCII = 128;
+
+    private final Node[] roots = new Node[ASCII];
+    // length of the longest raw text
+    private int maxWidth;
+
+    /**
+     * put the token by its raw text, replace the token of the same raw text
+     */
+    void put(Token token) {
+        String raw = token.getRaw();
+        Node node = roots[raw.charAt(0)];
+        if (node == null) {
+            node = roots[raw.charAt(0)] = new Node(1);
+        }
+        for (int k = 1; k < raw.length(); k++) {
+            node = node.child(raw.charAt(k));
+        }
+        node.token = token;
+        maxWidth = Math.max(maxWidth, raw.length());
+    }
+
+    /**
+     * @return length of the longest operator, the scanner reads so many chars at most to match it
+     */
+    int maxWidth() {
+        return maxWidth;
+    }
+
+    /**
+     * @return node of the token starting with the char, or null
+     */
+    Node root(char c) {
+        return c < ASCII ? roots[c] : null;
+    }
+
+    static final class Node {
+
+        final int width; // char count from the root
+        Token token; // null if no token ends here
+        private char[] chars = new char[0];
+        private Node[] children = new Node[0];
+
+        private Node(int width) {
+            this.width = width;
+        }
+
+        /**
+         * @return next node of the char, or null
+         */
+        Node next(char c) {
+            char[] chars = this.chars;
+            for (int k = 0; k < chars.length; k++) {
+                if (chars[k] == c) return children[k];
+            }
+            return null;
+        }
+
+        boolean hasNext() {
+            return chars.length > 0;
+        }
+
+        private Node child(char c) {
+            Node node = next(c);
+            if (node != null) return node;
+
+            int size = chars.length;
+            chars = Arrays.copyOf(chars, size + 1);
+            children = Arrays.copyOf(children, size + 1);
+            chars[size] = c;
+            return children[size] = new Node(width + 1);
+        }
+    }
+}
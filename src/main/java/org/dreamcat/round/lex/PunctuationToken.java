@@ -1,7 +1,5 @@
 package org.dreamcat.round.lex;
 
-import java.util.HashMap;
-import java.util.Map;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
@@ -94,14 +92,15 @@ public enum PunctuationToken implements Token {
     }
 
     public static PunctuationToken search(char c) {
-        return valueMap.get(c);
+        return c < valueTable.length ? valueTable[c] : null;
     }
 
-    private static final Map<Character, PunctuationToken> valueMap = new HashMap<>();
+    // indexed by the char, no boxing
+    private static final PunctuationToken[] valueTable = new PunctuationToken[128];
 
     static {
         for (PunctuationToken value : values()) {
-            valueMap.put(value.raw.charAt(0), value);
+            valueTable[value.raw.charAt(0)] = value;
         }
     }
 }
@@ -0,0 +1,261 @@
+package org.dreamcat.round.lex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import org.dreamcat.common.util.ObjectUtil;
+import org.dreamcat.round.exception.RoundException;
+
+/**
+ * a token stream lexed from a reader on demand,
+ * it keeps a window of chars and the tokens after the mark and the checkpoints,
+ * or a few tokens before the current offset if neither
+ *
+ * @author Jerry Will
+ * @version 2022-08-24
+ */
+class ReaderTokenStream implements TokenStream {
+
+    static final int DEFAULT_BUFFER_SIZE = 1 << 13;
+    // tokens kept before the current offset if no mark
+    private static final int HISTORY = 1 << 6;
+
+    private final Reader reader;
+    private final CharWindow window;
+    private final Scanner scanner;
+    private final LexConfig config;
+    private boolean eof; // the reader is exhausted
+    private boolean ended; // no more token
+    private int scanOffset; // char offset to scan the next token
+
+    // line and col of the char at posOffset
+    private int posOffset;
+    private int posLine = 1;
+    private int posCol = 1;
+
+    // tokens from first (inclusive) to size (exclusive)
+    private Token[] tokens;
+    private int[] starts;
+    private int[] ends;
+    private long[] startPositions; // line << 32 | col
+    private long[] endPositions;
+    private int first;
+    private int size;
+    private int offset; // index of next token to return
+    private int mark = -1; // marked offset
+    // offsets of the checkpoints in the order they are made, the tokens after them are kept
+    private int[] checkpoints = new int[8];
+    private int checkpointCount;
+
+    ReaderTokenStream(Reader reader, int bufferSize, Scanner scanner, LexConfig config) {
+        this.reader = reader;
+        this.window = new CharWindow(bufferSize);
+        this.scanner = scanner;
+        this.config = config;
+        this.scanner.reset(window, false);
+
+        int capacity = HISTORY << 2;
+        this.tokens = new Token[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.startPositions = new long[capacity];
+        this.endPositions = new long[capacity];
+    }
+
+    @Override
+    public String getExpression() {
+        return null;
+    }
+
+    @Override
+    public LineIndex getLineIndex() {
+        throw new UnsupportedOperationException("no line index for a stream lexed from a reader");
+    }
+
+    @Override
+    public boolean hasNext() {
+        return offset < size || (!ended && lexNext());
+    }
+
+    @Override
+    public Token next() {
+        if (!hasNext()) return throwWrongSyntax();
+        return tokens[offset++ - first];
+    }
+
+    @Override
+    public boolean hasPrevious() {
+        return offset > first;
+    }
+
+    @Override
+    public Token previous() {
+        if (!hasPrevious()) return throwWrongSyntax();
+        return tokens[--offset - first];
+    }
+
+    @Override
+    public TokenInfo get() {
+        if (offset < first || !hasNext()) return throwWrongSyntax();
+        int k = offset - first;
+        long startPosition = startPositions[k], endPosition = endPositions[k];
+        return TokenInfo.of(tokens[k], starts[k], ends[k],
+                (int) (startPosition >>> 32), (int) startPosition,
+                (int) (endPosition >>> 32), (int) endPosition);
+    }
+
+    @Override
+    public Token peek(int k) {
+        // lex ahead without moving the offset
+        while (offset + k >= size && !ended) {
+            lexNext();
+        }
+        int index = offset + k;
+        return index >= first && index < size ? tokens[index - first] : null;
+    }
+
+    @Override
+    public int checkpoint() {
+        if (checkpointCount == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, checkpointCount << 1);
+        }
+        return checkpoints[checkpointCount++] = offset;
+    }
+
+    /**
+     * @param checkpoint a checkpoint which is not released
+     */
+    @Override
+    public void rollback(int checkpoint) {
+        if (checkpoint < first || checkpoint > size || indexOf(checkpoint) < 0) {
+            throw new IllegalArgumentException("invalid checkpoint: " + checkpoint);
+        }
+        offset = checkpoint;
+    }
+
+    @Override
+    public void release(int checkpoint) {
+        int k = indexOf(checkpoint);
+        if (k >= 0) checkpointCount = k;
+    }
+
+    @Override
+    public void mark() {
+        mark = offset;
+    }
+
+    /**
+     * reset to the marked offset and clear old mark,
+     * or the first kept token if no mark
+     */
+    @Override
+    public void reset() {
+        offset = mark >= 0 ? mark : first;
+        mark = -1; // clear mark
+    }
+
+    @Override
+    public <T> T throwWrongSyntax() {
+        offset = ObjectUtil.limitRange(offset, first, size - 1);
+        throw config.getSyntaxExceptionProducer().apply(this);
+    }
+
+    // ---- ---- ---- ----    ---- ---- ---- ----    ---- ---- ---- ----
+
+    private boolean lexNext() {
+        for (; ; ) {
+            int end = scanner.scan(scanOffset);
+            if (end >= 0) {
+                add(scanner.token, scanner.start, end);
+                scanOffset = end;
+                return true;
+            } else if (end == Scanner.EOF) {
+                ended = true;
+                return false;
+            } else if (end == Scanner.INVALID) {
+                ended = true;
+                return throwInvalidToken(scanner.errorOffset);
+            }
+            fill();
+        }
+    }
+
+    private void fill() {
+        try {
+            // keep the chars after the last token to compute the line and col
+            if (!window.fill(reader, posOffset)) {
+                eof = true;
+            }
+        } catch (IOException e) {
+            throw new RoundException(e);
+        }
+        scanner.reset(window, eof);
+    }
+
+    private void add(Token token, int start, int end) {
+        if (size - first == tokens.length) {
+            compact();
+        }
+        int k = size - first;
+        tokens[k] = token;
+        starts[k] = start;
+        ends[k] = end;
+        startPositions[k] = locate(start);
+        endPositions[k] = locate(end);
+        size++;
+    }
+
+    // the last checkpoint of the offset, or -1
+    private int indexOf(int checkpoint) {
+        for (int k = checkpointCount - 1; k >= 0; k--) {
+            if (checkpoints[k] == checkpoint) return k;
+        }
+        return -1;
+    }
+
+    // drop the tokens which can not be reached, or grow the arrays
+    private void compact() {
+        int keep = mark >= 0 ? Math.min(mark, offset) : offset;
+        for (int k = 0; k < checkpointCount; k++) {
+            keep = Math.min(keep, checkpoints[k]);
+        }
+        int drop = keep - HISTORY - first, capacity = tokens.length;
+        if (drop >= capacity >> 1) {
+            int count = size - first - drop;
+            System.arraycopy(tokens, drop, tokens, 0, count);
+            System.arraycopy(starts, drop, starts, 0, count);
+            System.arraycopy(ends, drop, ends, 0, count);
+            System.arraycopy(startPositions, drop, startPositions, 0, count);
+            System.arraycopy(endPositions, drop, endPositions, 0, count);
+            Arrays.fill(tokens, count, capacity, null);
+            first += drop;
+        } else {
+            capacity <<= 1;
+            tokens = Arrays.copyOf(tokens, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            startPositions = Arrays.copyOf(startPositions, capacity);
+            endPositions = Arrays.copyOf(endPositions, capacity);
+        }
+    }
+
+    // move the position to the offset, and return it
+    private long locate(int target) {
+        for (int i = posOffset; i < target; i++) {
+            if (window.charAt(i) != '\n') {
+                posCol++;
+            } else {
+                posLine++;
+                posCol = 1;
+            }
+        }
+        posOffset = target;
+        return (long) posLine << 32 | posCol;
+    }
+
+    private <T> T throwInvalidToken(int offset) {
+        long position = locate(offset);
+        throw config.getLexExceptionProducer().apply(
+                null, offset, (int) (position >>> 32), (int) position);
+    }
+}
@@ -0,0 +1,486 @@
+package org.dreamcat.round.lex;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import org.dreamcat.common.util.NumberUtil;
+import org.dreamcat.round.lex.LexConfig.BigNumberStrategy;
+
+/**
+ * scan tokens one by one from a char source,
+ * the source may be a whole expression or a window of a larger input,
+ * in which case a token cut by the end of the source is reported as {@link #MORE}
+ *
+ * @author Jerry Will
+ * @version 2022-08-24
+ */
+final class Scanner {
+
+    /**
+     * no more token in the source
+     */
+    static final int EOF = -1;
+    /**
+     * the token is cut by the end of the source, scan it again with more chars
+     */
+    static final int MORE = -2;
+    /**
+     * invalid char at {@link #errorOffset}, the invalid token ends at {@link #errorEnd}
+     */
+    static final int INVALID = -3;
+    // no comment starts at the offset
+    private static final int NO_COMMENT = -4;
+
+    // a long of 15 digits and 10^22 are exact doubles
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final int MAX_EXACT_POW10 = 22;
+    private static final double[] POW10 = new double[MAX_EXACT_POW10 + 1];
+
+    static {
+        POW10[0] = 1;
+        for (int k = 1; k <= MAX_EXACT_POW10; k++) POW10[k] = POW10[k - 1] * 10;
+    }
+
+    private final Lexer lexer;
+    final LexGrammar table;
+
+    private CharSequence src;
+    private int limit; // length of the source
+    private boolean eof; // no more chars after the source
+
+    // result of the last scan
+    Token token;
+    int start;
+    int errorOffset;
+    int errorEnd; // to scan on after the invalid token
+
+    Scanner(Lexer lexer, LexGrammar table) {
+        this.lexer = lexer;
+        this.table = table;
+    }
+
+    /**
+     * @param src  chars to scan, indexed by the offset in the whole input
+     * @param eof  true if the source ends the input
+     */
+    void reset(CharSequence src, boolean eof) {
+        this.src = src;
+        this.limit = src.length();
+        this.eof = eof;
+    }
+
+    /**
+     * scan the next token from the offset,
+     * and keep the token and its start in {@link #token} and {@link #start}
+     *
+     * @param i offset to scan from, whitespaces and skipped tokens are skipped
+     * @return end (exclusive) offset of the token, or {@link #EOF}, {@link #MORE}, {@link #INVALID}
+     * @see LexConfig#setSkippedTypes
+     */
+    int scan(int i) {
+        int j;
+        while ((j = scanAny(i)) >= 0 && token == null) i = j;
+        return j;
+    }
+
+    /**
+     * scan the next token like {@link #scan(int)}, but a skipped token is not skipped,
+     * its {@link #token} is null
+     */
+    int scanAny(int i) {
+        int j = scanToken(i);
+        if (j >= 0 && token != null && table.isSkipped(token.getType())) {
+            token = null;
+        }
+        return j;
+    }
+
+    private int scanToken(int i) {
+        while (i < limit && src.charAt(i) <= ' ') i++;
+        start = i;
+        if (i >= limit) return eof ? EOF : MORE;
+
+        char c = src.charAt(i);
+        byte kind = table.kindOf(c);
+        if (kind == LexGrammar.COMMENT) {
+            int j = scanComment(i);
+            if (j != NO_COMMENT) return j;
+            kind = table.fallbackOf(c);
+        }
+
+        switch (kind) {
+            case LexGrammar.IDENTIFIER:
+                return scanIdentifier(i);
+            case LexGrammar.NUMBER:
+                return scanNumber(i);
+            case LexGrammar.STRING:
+                return scanString(i, c);
+            case LexGrammar.PUNCTUATION:
+                token = table.punctuationOf(c);
+                return i + 1;
+            case LexGrammar.OPERATOR:
+                return scanOperator(i);
+            default:
+                return invalidChars(i);
+        }
+    }
+
+    private int scanComment(int i) {
+        int j;
+        for (String singleComment : table.singleComments) {
+            int width = match(i, singleComment);
+            if (width < 0) {
+                if (isCut(i, singleComment)) return MORE;
+                continue;
+            }
+            for (j = i + width; j < limit && src.charAt(j) != '\n'; j++) ;
+            if (j == limit && !eof) return MORE;
+            token = table.isSkipped(Token.Type.COMMENT) ? null :
+                    CommentToken.of(substring(i, j), singleComment);
+            return j;
+        }
+
+        String[] starts = table.multipleCommentStarts, ends = table.multipleCommentEnds;
+        for (int k = 0; k < starts.length; k++) {
+            String start = starts[k], end = ends[k];
+            int width = match(i, start);
+            if (width < 0) {
+                if (isCut(i, start)) return MORE;
+                continue;
+            }
+            char last = end.charAt(0);
+            int endWidth, lastEnd = limit - end.length();
+            for (j = i + width; j <= lastEnd; j++) {
+                if (src.charAt(j) == last && (endWidth = match(j, end)) >= 0) {
+                    j += endWidth;
+                    token = table.isSkipped(Token.Type.COMMENT) ? null :
+                            CommentToken.of(substring(i, j), start, end);
+                    return j;
+                }
+            }
+            return eof ? invalid(i, limit) : MORE;
+        }
+        return NO_COMMENT;
+    }
+
+    private int scanIdentifier(int i) {
+        char c = src.charAt(i);
+        // the same as String#hashCode, computed while scanning
+        int hash = c, j = i + 1;
+        boolean ascii = c < 0x80;
+        while (j < limit && table.isIdentifierPart(c = src.charAt(j))) {
+            hash = 31 * hash + c;
+            ascii &= c < 0x80;
+            j++;
+        }
+        if (j == limit && !eof) return MORE;
+
+        if (ascii) {
+            token = identifierToken(src, i, j, hash);
+        } else {
+            // a non-ascii char of UTF-8 input spans several offsets, so look it up by a string
+            String v = substring(i, j);
+            token = identifierToken(v, 0, v.length(), v.hashCode());
+        }
+        return j;
+    }
+
+    // keywords, then identifier values, then cached identifiers
+    private Token identifierToken(CharSequence s, int start, int end, int hash) {
+        Token token = table.identifierOf(s, start, end, hash);
+        if (token != null) return token;
+        return lexer.identifierCache.get(s, start, end, hash, IdentifierToken::new);
+    }
+
+    // digits [. digits] [e [+-] digits]
+    private int scanNumber(int i) {
+        int j = skipDigits(i);
+        boolean floating = false;
+        if (j < limit - 1 && src.charAt(j) == '.' && isDigit(src.charAt(j + 1))) {
+            floating = true;
+            j = skipDigits(j + 1);
+        }
+        if (j < limit && (src.charAt(j) == 'e' || src.charAt(j) == 'E')) {
+            int k = j + 1;
+            if (k < limit && (src.charAt(k) == '+' || src.charAt(k) == '-')) k++;
+            if (k >= limit || !isDigit(src.charAt(k))) {
+                return eof ? invalid(Math.min(k, limit - 1), k) : MORE;
+            }
+            floating = true;
+            j = skipDigits(k);
+        }
+        // a dot may be followed by a digit
+        if (j >= limit - 1 && !eof) return MORE;
+
+        token = numberToken(i, j, floating);
+        return j;
+    }
+
+    private int scanString(int i, char c) {
+        boolean escaped = false;
+        for (int j = i + 1; j < limit; j++) {
+            char ch = src.charAt(j);
+            if (ch == '\\') {
+                escaped = true;
+                j++;
+            } else if (ch == c) {
+                token = stringToken(i, j + 1, escaped);
+                return j + 1;
+            }
+        }
+        return eof ? invalid(lastCharStart(), limit) : MORE;
+    }
+
+    // interned, or a slice of a string source, or a copy of a window
+    private StringToken stringToken(int start, int end, boolean escaped) {
+        TokenCache<StringToken> stringCache = lexer.stringCache;
+        if (stringCache != null) {
+            // a non-ascii char of UTF-8 input spans several offsets
+            if (src instanceof Utf8Source) {
+                return stringCache.get(substring(start, end), StringToken::ofRaw);
+            }
+            int hash = 0;
+            for (int k = start; k < end; k++) hash = 31 * hash + src.charAt(k);
+            return stringCache.get(src, start, end, hash, StringToken::ofRaw);
+        }
+        if (src instanceof String) {
+            return StringToken.ofSlice((String) src, start, end, escaped);
+        }
+        return StringToken.ofRaw(substring(start, end));
+    }
+
+    // the longest operator or punctuation
+    private int scanOperator(int i) {
+        OperatorTrie.Node node = table.operatorOf(src.charAt(i)), match = null;
+        for (int j = i + 1; ; j++) {
+            if (node.token != null) match = node;
+            if (j == limit) {
+                if (!eof && node.hasNext()) return MORE;
+                break;
+            }
+            if ((node = node.next(src.charAt(j))) == null) break;
+        }
+        if (match == null) return invalid(i, i + 1);
+        token = match.token;
+        return i + match.width;
+    }
+
+    private NumberToken numberToken(int start, int end, boolean floating) {
+        int hash = 0;
+        for (int k = start; k < end; k++) hash = 31 * hash + src.charAt(k);
+        return lexer.numberCache.get(src, start, end, hash,
+                it -> newNumberToken(it, floating));
+    }
+
+    // primitive token if the strategy allows, no boxed parsing on the way
+    private NumberToken newNumberToken(String value, boolean floating) {
+        BigNumberStrategy bns = table.bigNumberStrategy;
+        if (!floating && bns != BigNumberStrategy.ALWAYS) {
+            long v = parseLong(value);
+            if (v >= 0) {
+                return v <= Integer.MAX_VALUE ?
+                        NumberToken.of((int) v, value) : NumberToken.of(v, value);
+            }
+        } else if (floating && bns == BigNumberStrategy.NONE) {
+            double v = parseDouble(value);
+            if (!Double.isNaN(v)) return NumberToken.of(v, value);
+        }
+        return new NumberToken(parseNumber(value, floating), value);
+    }
+
+    // digits to long, or -1 if it overflows
+    private static long parseLong(String value) {
+        long v = 0;
+        for (int k = 0, size = value.length(); k < size; k++) {
+            int d = value.charAt(k) - '0';
+            if (v > (Long.MAX_VALUE - d) / 10) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    /**
+     * parse the number exactly as {@link Double#parseDouble} if the mantissa and the power of ten
+     * are both exact doubles, then only one rounding happens
+     *
+     * @return NaN if it cannot be parsed fast
+     */
+    private static double parseDouble(String value) {
+        long mantissa = 0;
+        int digits = 0, exponent = 0, k = 0, size = value.length();
+        boolean fraction = false;
+        for (; k < size; k++) {
+            char c = value.charAt(k);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            if (c == 'e' || c == 'E') break;
+            if (mantissa != 0 || c != '0') digits++;
+            if (digits > MAX_EXACT_DIGITS) return Double.NaN;
+            mantissa = mantissa * 10 + (c - '0');
+            if (fraction) exponent--;
+        }
+        if (k < size) {
+            boolean negative = value.charAt(++k) == '-';
+            if (negative || value.charAt(k) == '+') k++;
+            if (size - k > 3) return Double.NaN;
+            int e = 0;
+            for (; k < size; k++) e = e * 10 + (value.charAt(k) - '0');
+            exponent += negative ? -e : e;
+        }
+        if (exponent < -MAX_EXACT_POW10 || exponent > MAX_EXACT_POW10) return Double.NaN;
+        return exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+    }
+
+    private Number parseNumber(String value, boolean floating) {
+        BigNumberStrategy bns = table.bigNumberStrategy;
+        if (bns == BigNumberStrategy.NONE) {
+            return NumberUtil.parseNumber(value, floating);
+        } else {
+            if (floating) {
+                BigDecimal bigNum = new BigDecimal(value);
+                if (bns == BigNumberStrategy.RANGE &&
+                        NumberUtil.isDoubleRange(bigNum)) {
+                    return bigNum.doubleValue();
+                } else return bigNum;
+            } else {
+                BigInteger bigNum = new BigInteger(value);
+                if (bns == BigNumberStrategy.RANGE && NumberUtil.isLongRange(bigNum)) {
+                    if (NumberUtil.isIntRange(bigNum)) {
+                        return bigNum.intValue();
+                    } else {
+                        return bigNum.longValue();
+                    }
+                } else return bigNum;
+            }
+        }
+    }
+
+    /**
+     * the token which the chars are lexed to, the same instance if cached
+     *
+     * @param type type of the token lexed from the chars
+     * @return null if the grammar has no such operator or comment
+     */
+    Token tokenOf(Token.Type type, CharSequence s, int start, int end) {
+        int hash = 0;
+        switch (type) {
+            case IDENTIFIER:
+            case IDENTIFIER_VALUE:
+                for (int k = start; k < end; k++) hash = 31 * hash + s.charAt(k);
+                return identifierToken(s, start, end, hash);
+            case NUMBER:
+                boolean floating = false;
+                for (int k = start; k < end; k++) {
+                    char c = s.charAt(k);
+                    floating |= c == '.' || c == 'e' || c == 'E';
+                    hash = 31 * hash + c;
+                }
+                boolean f = floating;
+                return lexer.numberCache.get(s, start, end, hash, it -> newNumberToken(it, f));
+            default:
+                return tokenOf(type, s.subSequence(start, end).toString());
+        }
+    }
+
+    private Token tokenOf(Token.Type type, String raw) {
+        switch (type) {
+            case STRING:
+                TokenCache<StringToken> stringCache = lexer.stringCache;
+                return stringCache != null ?
+                        stringCache.get(raw, StringToken::ofRaw) : StringToken.ofRaw(raw);
+            case OPERATOR:
+            case PUNCTUATION:
+                return table.operatorOf(raw);
+            case COMMENT:
+                for (String singleComment : table.singleComments) {
+                    if (raw.startsWith(singleComment)) return CommentToken.of(raw, singleComment);
+                }
+                String[] starts = table.multipleCommentStarts, ends = table.multipleCommentEnds;
+                for (int k = 0; k < starts.length; k++) {
+                    if (raw.startsWith(starts[k]) && raw.endsWith(ends[k])) {
+                        return CommentToken.of(raw, starts[k], ends[k]);
+                    }
+                }
+                return null;
+            default:
+                return new InvalidToken(raw);
+        }
+    }
+
+    // ---- ---- ---- ----    ---- ---- ---- ----    ---- ---- ---- ----
+
+    // a run of chars which no token starts with
+    private int invalidChars(int i) {
+        int j = i + 1;
+        while (j < limit && src.charAt(j) > ' ' &&
+                table.kindOf(src.charAt(j)) == LexGrammar.INVALID) j++;
+        return invalid(i, j);
+    }
+
+    // a char of UTF-8 input or a supplementary char spans several offsets
+    private int lastCharStart() {
+        int i = limit - 1;
+        if (src instanceof Utf8Source) return ((Utf8Source) src).charStart(i);
+        if (i > 0 && Character.isLowSurrogate(src.charAt(i)) &&
+                Character.isHighSurrogate(src.charAt(i - 1))) return i - 1;
+        return i;
+    }
+
+    private int invalid(int offset, int end) {
+        errorOffset = offset;
+        errorEnd = end;
+        return INVALID;
+    }
+
+    private int skipDigits(int i) {
+        while (i < limit && isDigit(src.charAt(i))) i++;
+        return i;
+    }
+
+    // width of the delimiter at the offset, or -1
+    private int match(int i, String s) {
+        if (src instanceof Utf8Source && !isAscii(s)) {
+            // by the bytes, so it never matches from the middle of a char
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            return ((Utf8Source) src).prefix(i, limit, bytes) == bytes.length ? bytes.length : -1;
+        }
+        int width = s.length();
+        if (i + width > limit) return -1;
+        for (int k = 0; k < width; k++) {
+            if (src.charAt(i + k) != s.charAt(k)) return -1;
+        }
+        return width;
+    }
+
+    // the delimiter may match after more chars are read
+    private boolean isCut(int i, String s) {
+        if (eof) return false;
+        if (src instanceof Utf8Source && !isAscii(s)) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            int k = ((Utf8Source) src).prefix(i, limit, bytes);
+            return k < bytes.length && i + k == limit;
+        }
+        if (i + s.length() <= limit) return false;
+        for (int k = 0; i + k < limit; k++) {
+            if (src.charAt(i + k) != s.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private String substring(int start, int end) {
+        return src.subSequence(start, end).toString();
+    }
+
+    private static boolean isAscii(String s) {
+        for (int k = 0; k < s.length(); k++) {
+            if (s.charAt(k) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
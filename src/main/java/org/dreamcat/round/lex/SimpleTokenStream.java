@@ -1,50 +1,165 @@
 package org.dreamcat.round.lex;
 
-import java.util.ArrayList;
-import java.util.List;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
-import lombok.Setter;
 import org.dreamcat.common.util.ObjectUtil;
 
 /**
  * @author Jerry Will
  * @version 2021-09-07
  */
-@RequiredArgsConstructor
 public class SimpleTokenStream implements TokenStream {
 
     @Getter
     private final String expression;
+    private final CharSequence source; // the expression, or its UTF-8 bytes, or null
+    private final int[] lineStarts; // of a stream without the source
     private final LexConfig config;
-    private final List<TokenInfo> tokenInfos = new ArrayList<>();
-    private int size;
+    private final TokenBuffer buffer;
+    // which the tokens are lexed by, null if unknown, such as decoded tokens
+    LexGrammar grammar;
+    // scan the rest of the source on demand, null if all tokens are lexed
+    private Scanner scanner;
+    private int scanOffset; // char offset to scan the next token
+    private int errorOffset = -1; // of the invalid char which the scanner stops at
     private int offset; // index of next token to return
     private int mark; // marked offset
 
-    @Setter
     private int firstLineNo = 1;
-    @Setter
     private int firstCol = 1;
+    private LineIndex lineIndex; // lazy compute
+
+    public SimpleTokenStream(String expression, LexConfig config) {
+        this(expression, config, new TokenBuffer());
+    }
+
+    // the expression is not kept as a string
+    SimpleTokenStream(CharSequence source, LexConfig config) {
+        this(source, config, new TokenBuffer());
+    }
+
+    SimpleTokenStream(CharSequence source, LexConfig config, TokenBuffer buffer) {
+        this(source, null, config, buffer);
+    }
+
+    // the line and col are computed by the line starts
+    SimpleTokenStream(int[] lineStarts, LexConfig config, TokenBuffer buffer) {
+        this(null, lineStarts, config, buffer);
+    }
+
+    // lex the tokens when they are required
+    SimpleTokenStream(String expression, LexConfig config, Scanner scanner) {
+        this(expression, config);
+        this.scanner = scanner;
+        this.grammar = scanner.table;
+        scanner.reset(expression, true);
+    }
+
+    // a cursor over the shared tokens
+    SimpleTokenStream(TokenArray array) {
+        this(array.source, array.lineStarts, array.config, array.buffer);
+        this.grammar = array.grammar;
+        this.firstLineNo = array.getLineIndex().getFirstLineNo();
+        this.firstCol = array.getLineIndex().getFirstCol();
+        this.lineIndex = array.getLineIndex();
+    }
+
+    private SimpleTokenStream(CharSequence source, int[] lineStarts, LexConfig config, TokenBuffer buffer) {
+        this.expression = source instanceof String ? (String) source : null;
+        this.source = source;
+        this.lineStarts = lineStarts;
+        this.config = config;
+        this.buffer = buffer;
+    }
+
+    /**
+     * the tokens of the stream, which can be read by threads at the same time,
+     * the offset and mark of this stream are not shared
+     */
+    public TokenArray toArray() {
+        TokenBuffer tokens = tokens();
+        return new TokenArray(expression, source, lineStarts, config, grammar, tokens, getLineIndex());
+    }
+
+    CharSequence source() {
+        return source;
+    }
+
+    /**
+     * @return all tokens, the rest are lexed first if the stream is lazy
+     */
+    TokenBuffer tokens() {
+        lexTo(Integer.MAX_VALUE);
+        return buffer;
+    }
 
     // only invoke it in a lexer
-    void add(TokenInfo tokenInfo) {
-        computeTokenInfo(tokenInfo);
-        tokenInfos.add(tokenInfo);
-        size++;
+    void add(Token token, int start, int end) {
+        buffer.add(token, start, end);
+    }
+
+    public void setFirstLineNo(int firstLineNo) {
+        this.firstLineNo = firstLineNo;
+        this.lineIndex = null;
+    }
+
+    public void setFirstCol(int firstCol) {
+        this.firstCol = firstCol;
+        this.lineIndex = null;
+    }
+
+    /**
+     * @return count of the tokens
+     */
+    public int size() {
+        return tokens().size();
+    }
+
+    /**
+     * @return index of the token which {@link #next()} returns
+     */
+    public int index() {
+        return offset;
+    }
+
+    /**
+     * @param index index of the token, in [0, size)
+     */
+    public Token token(int index) {
+        checkIndex(index);
+        return buffer.token(index);
+    }
+
+    /**
+     * @param index index of the token, in [0, size)
+     */
+    public TokenInfo get(int index) {
+        checkIndex(index);
+        return TokenInfo.of(buffer.token(index),
+                buffer.start(index), buffer.end(index), getLineIndex());
     }
 
     // ---- ---- ---- ----    ---- ---- ---- ----    ---- ---- ---- ----
 
+    @Override
+    public LineIndex getLineIndex() {
+        LineIndex index = lineIndex;
+        if (index == null) {
+            lineIndex = index = source != null ?
+                    LineIndex.of(source, firstLineNo, firstCol) :
+                    LineIndex.of(lineStarts, firstLineNo, firstCol);
+        }
+        return index;
+    }
+
     @Override
     public boolean hasNext() {
-        return offset < size;
+        return offset < buffer.size() || lexTo(offset);
     }
 
     @Override
     public Token next() {
         if (!hasNext()) return throwWrongSyntax();
-        return tokenInfos.get(offset++).getToken();
+        return buffer.token(offset++);
     }
 
     @Override
@@ -55,13 +170,39 @@ public class SimpleTokenStream implements TokenStream {
     @Override
     public Token previous() {
         if (!hasPrevious()) return throwWrongSyntax();
-        return tokenInfos.get(--offset).getToken();
+        return buffer.token(--offset);
     }
 
     @Override
     public TokenInfo get() {
-        if (offset < 0 || offset >= size) return throwWrongSyntax();
-        return tokenInfos.get(offset);
+        if (offset < 0 || !hasNext()) return throwWrongSyntax();
+        return TokenInfo.of(buffer.token(offset),
+                buffer.start(offset), buffer.end(offset), getLineIndex());
+    }
+
+    @Override
+    public Token peek(int k) {
+        int index = offset + k;
+        return index >= 0 && lexTo(index) ? buffer.token(index) : null;
+    }
+
+    @Override
+    public Token.Type peekType(int k) {
+        int index = offset + k;
+        return index >= 0 && lexTo(index) ? buffer.type(index) : null;
+    }
+
+    @Override
+    public int checkpoint() {
+        return offset;
+    }
+
+    @Override
+    public void rollback(int checkpoint) {
+        if (checkpoint < 0 || checkpoint > buffer.size()) {
+            throw new IllegalArgumentException("invalid checkpoint: " + checkpoint);
+        }
+        offset = checkpoint;
     }
 
     @Override
@@ -79,58 +220,45 @@ public class SimpleTokenStream implements TokenStream {
 
     @Override
     public <T> T throwWrongSyntax() {
-        offset = ObjectUtil.limitRange(offset, 0, size - 1);
+        offset = ObjectUtil.limitRange(offset, 0, buffer.size() - 1);
         throw config.getSyntaxExceptionProducer().apply(this);
     }
 
-    // ---- ---- ---- ----    ---- ---- ---- ----    ---- ---- ---- ----
-
-    private void computeTokenInfo(TokenInfo tokenInfo) {
-        TokenInfo prevTokenInfo = null;
-        if (size > 0) {
-            prevTokenInfo = tokenInfos.get(size - 1);
+    private void checkIndex(int index) {
+        if (index < 0 || !lexTo(index)) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + buffer.size());
         }
+    }
 
-        int startLine, startCol;
-        int prev = 0;
-        // already compute, then use previous token cache
-        if (prevTokenInfo != null && prevTokenInfo.startLine > 0) {
-            prev = prevTokenInfo.getEnd();
-            startLine = prevTokenInfo.endLine;
-            startCol = prevTokenInfo.endCol;
-        } else {
-            startLine = firstLineNo;
-            startCol = firstCol;
-        }
+    /**
+     * lex the tokens until the index if the stream is lazy
+     *
+     * @return the token at the index is lexed
+     */
+    private boolean lexTo(int index) {
+        if (index < buffer.size()) return true;
+        if (errorOffset >= 0) return throwInvalidToken();
 
-        // compute start
-        int start = tokenInfo.getStart();
-        for (int i = prev; i < start; i++) {
-            char c = expression.charAt(i);
-            if (c != '\n') {
-                startCol++;
-            } else {
-                startLine++;
-                startCol = 1;
-            }
+        Scanner scanner = this.scanner;
+        if (scanner == null) return false;
+        int end;
+        while ((end = scanner.scan(scanOffset)) >= 0) {
+            buffer.add(scanner.token, scanner.start, end);
+            scanOffset = end;
+            if (index < buffer.size()) return true;
         }
-
-        // compute end
-        int endLine = startLine, endCol = startCol;
-        int end = tokenInfo.getEnd();
-        for (int i = start; i < end; i++) {
-            char c = expression.charAt(i);
-            if (c != '\n') {
-                endCol++;
-            } else {
-                endLine++;
-                endCol = 1;
-            }
+        this.scanner = null;
+        if (end == Scanner.INVALID) {
+            errorOffset = scanner.errorOffset;
+            return throwInvalidToken();
         }
+        return false;
+    }
 
-        tokenInfo.startLine = startLine;
-        tokenInfo.startCol = startCol;
-        tokenInfo.endLine = endLine;
-        tokenInfo.endCol = endCol;
+    // the same as the lexer throws, every time the stream reaches the invalid char
+    private <T> T throwInvalidToken() {
+        LineIndex lineIndex = getLineIndex();
+        throw config.getLexExceptionProducer().apply(expression, errorOffset,
+                lineIndex.getLine(errorOffset), lineIndex.getCol(errorOffset));
     }
 }
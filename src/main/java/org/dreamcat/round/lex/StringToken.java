@@ -22,21 +22,34 @@ public class StringToken extends ValueToken<String> {
     }
 
     public static StringToken ofSingle(String rawValue) {
-        String rawToken = String.format("'%s'", rawValue);
-        String value = StringUtil.unescape(rawValue);
-        return new StringToken(value, rawToken, null, "'", null);
+        return new StringToken(unescape(rawValue), '\'' + rawValue + '\'', null, SINGLE, null);
     }
 
     public static StringToken ofDouble(String rawValue) {
-        String rawToken = String.format("\"%s\"", rawValue);
-        String value = StringUtil.unescape(rawValue);
-        return new StringToken(value, rawToken, null, "\"", null);
+        return new StringToken(unescape(rawValue), '"' + rawValue + '"', null, DOUBLE, null);
     }
 
     public static StringToken ofBacktick(String rawValue) {
-        String rawToken = String.format("`%s`", rawValue);
-        String value = StringUtil.unescape(rawValue);
-        return new StringToken(value, rawToken, null, "`", null);
+        return new StringToken(unescape(rawValue), '`' + rawValue + '`', null, BACKTICK, null);
+    }
+
+    /**
+     * a token whose raw text and value are computed from the source on first access
+     *
+     * @param start   offset of the left sep
+     * @param end     end (exclusive) offset of the right sep
+     * @param escaped a backslash is in the token, so the value is unescaped
+     */
+    static StringToken ofSlice(String source, int start, int end, boolean escaped) {
+        return new SliceStringToken(source, start, end, escaped);
+    }
+
+    /**
+     * @param rawToken raw text with the single, double or backtick seps
+     */
+    static StringToken ofRaw(String rawToken) {
+        String rawValue = rawToken.substring(1, rawToken.length() - 1);
+        return new StringToken(unescape(rawValue), rawToken, null, sepOf(rawToken.charAt(0)), null);
     }
 
     public static StringToken ofPrefix(String rawValue, String prefix, char left, char right) {
@@ -52,15 +65,15 @@ public class StringToken extends ValueToken<String> {
     }
 
     public boolean isSingle() {
-        return "'".equals(sep);
+        return SINGLE.equals(sep);
     }
 
     public boolean isDouble() {
-        return "\"".equals(sep);
+        return DOUBLE.equals(sep);
     }
 
     public boolean isBacktick() {
-        return "`".equals(sep);
+        return BACKTICK.equals(sep);
     }
 
     public boolean isPrefix() {
@@ -70,4 +83,58 @@ public class StringToken extends ValueToken<String> {
     public boolean isSeparator() {
         return secondSep != null;
     }
+
+    // ---- ---- ---- ----    ---- ---- ---- ----    ---- ---- ---- ----
+
+    private static final String SINGLE = "'";
+    private static final String DOUBLE = "\"";
+    private static final String BACKTICK = "`";
+
+    private static String sepOf(char c) {
+        return c == '\'' ? SINGLE : c == '"' ? DOUBLE : BACKTICK;
+    }
+
+    // no copy if nothing to unescape
+    private static String unescape(String rawValue) {
+        return rawValue.indexOf('\\') < 0 ? rawValue : StringUtil.unescape(rawValue);
+    }
+
+    private static final class SliceStringToken extends StringToken {
+
+        private final String source;
+        private final int start;
+        private final int end;
+        private final boolean escaped;
+        // lazy compute, a racy compute makes an equal string
+        private String lazyRaw;
+        private String lazyValue;
+
+        SliceStringToken(String source, int start, int end, boolean escaped) {
+            super(null, null, null, sepOf(source.charAt(start)), null);
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            this.escaped = escaped;
+        }
+
+        @Override
+        public String getRaw() {
+            String raw = lazyRaw;
+            if (raw == null) {
+                lazyRaw = raw = source.substring(start, end);
+            }
+            return raw;
+        }
+
+        @Override
+        public String getValue() {
+            String value = lazyValue;
+            if (value == null) {
+                value = source.substring(start + 1, end - 1);
+                if (escaped) value = StringUtil.unescape(value);
+                lazyValue = value;
+            }
+            return value;
+        }
+    }
 }
@@ -94,5 +94,6 @@ public interface Token {
         OPERATOR,
         PUNCTUATION,
         COMMENT,
+        INVALID, // only in a diagnosed stream
     }
 }
\ No newline at end of file
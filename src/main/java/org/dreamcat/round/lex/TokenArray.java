@@ -0,0 +1,83 @@
+package org.dreamcat.round.lex;
+
+import lombok.Getter;
+
+/**
+ * immutable tokens of a lexed expression, which can be read by threads at the same time,
+ * each thread reads them by its own stream from {@link #stream()}
+ *
+ * @author Jerry Will
+ * @version 2022-09-18
+ * @see SimpleTokenStream#toArray()
+ */
+public final class TokenArray {
+
+    /**
+     * expression code, or null if the tokens are lexed from bytes or decoded without it
+     */
+    @Getter
+    private final String expression;
+    final CharSequence source;
+    final int[] lineStarts;
+    final LexConfig config;
+    final LexGrammar grammar;
+    // never added after the lex, so it is read without a lock
+    final TokenBuffer buffer;
+    /**
+     * line and col of the expression, shared by all streams
+     */
+    @Getter
+    private final LineIndex lineIndex;
+
+    TokenArray(String expression, CharSequence source, int[] lineStarts, LexConfig config,
+            LexGrammar grammar, TokenBuffer buffer, LineIndex lineIndex) {
+        this.expression = expression;
+        this.source = source;
+        this.lineStarts = lineStarts;
+        this.config = config;
+        this.grammar = grammar;
+        this.buffer = buffer;
+        this.lineIndex = lineIndex;
+    }
+
+    /**
+     * @return a new stream at the head, which is not thread-safe
+     */
+    public TokenStream stream() {
+        return new SimpleTokenStream(this);
+    }
+
+    public int size() {
+        return buffer.size();
+    }
+
+    /**
+     * @param index index of the token, in [0, size)
+     */
+    public Token token(int index) {
+        checkIndex(index);
+        return buffer.token(index);
+    }
+
+    /**
+     * @param index index of the token, in [0, size)
+     */
+    public Token.Type type(int index) {
+        checkIndex(index);
+        return buffer.type(index);
+    }
+
+    /**
+     * @param index index of the token, in [0, size)
+     */
+    public TokenInfo get(int index) {
+        checkIndex(index);
+        return TokenInfo.of(buffer.token(index), buffer.start(index), buffer.end(index), lineIndex);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= buffer.size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + buffer.size());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.dreamcat.round.lex;
+
+import java.util.Arrays;
+
+/**
+ * lexed tokens stored as parallel arrays, one slot per token
+ *
+ * @author Jerry Will
+ * @version 2022-08-21
+ */
+final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[] kinds; // ordinal of Token.Type
+    private int[] starts; // start offset in the expression
+    private int[] ends; // end (exclusive) offset in the expression
+    private Token[] tokens; // shared token instances
+    private int size;
+
+    TokenBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    TokenBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.kinds = new byte[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.tokens = new Token[capacity];
+    }
+
+    void add(Token token, int start, int end) {
+        if (size == tokens.length) {
+            grow();
+        }
+        kinds[size] = (byte) token.getType().ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        tokens[size] = token;
+        size++;
+    }
+
+    /**
+     * add the tokens of another buffer, with their offsets shifted
+     *
+     * @param from  first index in the other buffer
+     * @param to    end (exclusive) index in the other buffer
+     * @param delta added to the offsets
+     */
+    void addAll(TokenBuffer other, int from, int to, int delta) {
+        int count = to - from;
+        if (count <= 0) return;
+        ensureCapacity(size + count);
+        System.arraycopy(other.kinds, from, kinds, size, count);
+        System.arraycopy(other.tokens, from, tokens, size, count);
+        if (delta == 0) {
+            System.arraycopy(other.starts, from, starts, size, count);
+            System.arraycopy(other.ends, from, ends, size, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                starts[size + i] = other.starts[from + i] + delta;
+                ends[size + i] = other.ends[from + i] + delta;
+            }
+        }
+        size += count;
+    }
+
+    /**
+     * @return index of the first token which ends at or after the offset, or the size
+     */
+    int searchEnd(int offset) {
+        return search(ends, offset);
+    }
+
+    /**
+     * @return index of the first token which starts at or after the offset, or the size
+     */
+    int searchStart(int offset) {
+        return search(starts, offset);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Token.Type type(int index) {
+        return TYPES[kinds[index]];
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int end(int index) {
+        return ends[index];
+    }
+
+    Token token(int index) {
+        return tokens[index];
+    }
+
+    private int search(int[] offsets, int offset) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private void grow() {
+        ensureCapacity(tokens.length + (tokens.length >> 1) + 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= tokens.length) return;
+        kinds = Arrays.copyOf(kinds, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        tokens = Arrays.copyOf(tokens, capacity);
+    }
+}
@@ -0,0 +1,64 @@
+package org.dreamcat.round.lex;
+
+import java.util.function.Function;
+
+/**
+ * cache of the tokens lexed from the same raw text,
+ * implementations must be thread-safe
+ *
+ * @author Jerry Will
+ * @version 2022-08-30
+ */
+public interface TokenCache<T extends Token> {
+
+    /**
+     * get the cached token, or create and cache it
+     *
+     * @param raw     raw text of the token
+     * @param factory create the token if it is not cached
+     * @return cached or created token
+     */
+    T get(String raw, Function<String, ? extends T> factory);
+
+    /**
+     * get the cached token of the chars, the raw text is created only if it is not cached
+     *
+     * @param src     source of the token
+     * @param start   start offset of the token
+     * @param end     end (exclusive) offset of the token
+     * @param hash    hash of the chars, the same as {@link String#hashCode()}
+     * @param factory create the token if it is not cached
+     * @return cached or created token
+     */
+    default T get(CharSequence src, int start, int end, int hash,
+            Function<String, ? extends T> factory) {
+        return get(src.subSequence(start, end).toString(), factory);
+    }
+
+    void clear();
+
+    TokenCacheStats getStats();
+
+    /**
+     * cache all tokens until {@link #clear()}, a cached token is got without allocation
+     */
+    static <T extends Token> TokenCache<T> unbounded() {
+        return new UnboundedTokenCache<>();
+    }
+
+    /**
+     * evict the least recently used token if the size exceeds
+     *
+     * @param maximumSize max count of the cached tokens
+     */
+    static <T extends Token> TokenCache<T> lru(int maximumSize) {
+        return new LruTokenCache<>(maximumSize);
+    }
+
+    /**
+     * cache the tokens until they are not referenced by any stream
+     */
+    static <T extends Token> TokenCache<T> weak() {
+        return new WeakTokenCache<>();
+    }
+}
@@ -0,0 +1,32 @@
+package org.dreamcat.round.lex;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * @author Jerry Will
+ * @version 2022-08-30
+ */
+@Getter
+@RequiredArgsConstructor
+public class TokenCacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int size;
+
+    /**
+     * @return ratio of hits in all lookups, or 1 if no lookup
+     */
+    public double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 1.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hit %d, miss %d, eviction %d, size %d",
+                hitCount, missCount, evictionCount, size);
+    }
+}
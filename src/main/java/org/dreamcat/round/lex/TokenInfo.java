@@ -1,5 +1,6 @@
 package org.dreamcat.round.lex;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
@@ -15,20 +16,66 @@ public class TokenInfo {
     final int start; // start offset in the expression
     final int end; // end (exclusive) offset in the expression
 
-    // lazy compute
-    int startLine; // 1-based index
-    int startCol; // 1-based
+    // lazy compute the line and col by it
+    @Getter(AccessLevel.NONE)
+    final LineIndex lineIndex;
+
+    // computed already if no line index
+    int startLine;
+    int startCol;
     int endLine;
     int endCol;
 
+    public TokenInfo(Token token, int start, int end) {
+        this(token, start, end, null);
+    }
+
     public static TokenInfo of(
             Token token, int start, int end) {
-        return new TokenInfo(token, start, end);
+        return new TokenInfo(token, start, end, null);
+    }
+
+    public static TokenInfo of(
+            Token token, int start, int end, LineIndex lineIndex) {
+        return new TokenInfo(token, start, end, lineIndex);
+    }
+
+    public static TokenInfo of(
+            Token token, int start, int end,
+            int startLine, int startCol, int endLine, int endCol) {
+        TokenInfo tokenInfo = new TokenInfo(token, start, end, null);
+        tokenInfo.startLine = startLine;
+        tokenInfo.startCol = startCol;
+        tokenInfo.endLine = endLine;
+        tokenInfo.endCol = endCol;
+        return tokenInfo;
+    }
+
+    /**
+     * @return 1-based index, or 0 if unknown
+     */
+    public int getStartLine() {
+        return lineIndex != null ? lineIndex.getLine(start) : startLine;
+    }
+
+    /**
+     * @return 1-based index, or 0 if unknown
+     */
+    public int getStartCol() {
+        return lineIndex != null ? lineIndex.getCol(start) : startCol;
+    }
+
+    public int getEndLine() {
+        return lineIndex != null ? lineIndex.getLine(end) : endLine;
+    }
+
+    public int getEndCol() {
+        return lineIndex != null ? lineIndex.getCol(end) : endCol;
     }
 
     @Override
     public String toString() {
         return String.format("%s (%d-%d) (%d:%d, %d:%d)",
-                token, start, end, startLine, startCol, endLine, endCol);
+                token, start, end, getStartLine(), getStartCol(), getEndLine(), getEndCol());
     }
 }
@@ -7,10 +7,23 @@ package org.dreamcat.round.lex;
 public interface TokenStream {
 
     /**
-     * expression code
+     * expression code, or null if the stream does not keep the whole input
      */
     String getExpression();
 
+    /**
+     * line and col of the expression
+     *
+     * @throws UnsupportedOperationException if the stream does not keep the whole input
+     */
+    default LineIndex getLineIndex() {
+        String expression = getExpression();
+        if (expression == null) {
+            throw new UnsupportedOperationException("no line index for a stream without the expression");
+        }
+        return LineIndex.of(expression);
+    }
+
     /**
      * has next
      */
@@ -36,6 +49,65 @@ public interface TokenStream {
      */
     TokenInfo get();
 
+    /**
+     * the k-th token after the offset, without moving the offset
+     *
+     * @param k 0 for the token which {@link #next()} returns
+     * @return null if no such token
+     */
+    default Token peek(int k) {
+        // forth then back, so no checkpoint is needed
+        int moved = 0;
+        try {
+            Token token = null;
+            for (; moved <= k; moved++) {
+                if (!hasNext()) return null;
+                token = next();
+            }
+            return token;
+        } finally {
+            for (; moved > 0; moved--) previous();
+        }
+    }
+
+    /**
+     * type of the k-th token after the offset, without moving the offset
+     *
+     * @return null if no such token
+     */
+    default Token.Type peekType(int k) {
+        Token token = peek(k);
+        return token != null ? token.getType() : null;
+    }
+
+    /**
+     * save the current offset, a checkpoint can be made after another one,
+     * such as for a nested speculative parse
+     *
+     * @return handle of the checkpoint
+     * @throws UnsupportedOperationException if the stream does not support checkpoints
+     */
+    default int checkpoint() {
+        throw new UnsupportedOperationException("checkpoint");
+    }
+
+    /**
+     * move back (or forth) to the checkpoint, which is kept until it is released
+     *
+     * @param checkpoint handle returned by {@link #checkpoint()}
+     * @throws UnsupportedOperationException if the stream does not support checkpoints
+     */
+    default void rollback(int checkpoint) {
+        throw new UnsupportedOperationException("rollback");
+    }
+
+    /**
+     * the checkpoint is not used any more, so are the ones made after it,
+     * then the stream may drop the tokens before them
+     */
+    default void release(int checkpoint) {
+    }
+
     /**
      * mark the current offset
      */
@@ -0,0 +1,116 @@
+package org.dreamcat.round.lex;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * cache of the lexed expressions, a hit returns a new stream over the cached tokens,
+ * so the streams of the same expression can be used by different threads,
+ * the tokens lexed by an old grammar of the config are lexed again
+ *
+ * @author Jerry Will
+ * @version 2022-09-02
+ * @see TokenArray
+ */
+public class TokenStreamCache {
+
+    private final Lexer lexer;
+    private final Map<String, Cached> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize max count of the cached expressions,
+     *                    the least recently used one is evicted if the size exceeds,
+     *                    set to <=0 to cache all expressions
+     */
+    public TokenStreamCache(Lexer lexer, int maximumSize) {
+        this.lexer = lexer;
+        if (maximumSize <= 0) {
+            this.map = new ConcurrentHashMap<>();
+            return;
+        }
+        this.map = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                if (size() <= maximumSize) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * lex the expression or get the cached tokens
+     *
+     * @param expression expression code
+     * @return a new stream at the head
+     */
+    public TokenStream lex(String expression) {
+        // the lex uses this grammar or a newer one, so the entry is never newer than it is marked
+        LexGrammar grammar = lexer.config.compile();
+        Cached entry = get(expression);
+        if (entry != null && entry.grammar == grammar) {
+            hits.increment();
+            return entry.tokens.stream();
+        }
+        misses.increment();
+
+        TokenArray tokens = ((SimpleTokenStream) lexer.lex(expression)).toArray();
+        put(expression, new Cached(grammar, tokens));
+        return tokens.stream();
+    }
+
+    public void clear() {
+        if (map instanceof ConcurrentHashMap) {
+            map.clear();
+            return;
+        }
+        synchronized (map) {
+            map.clear();
+        }
+    }
+
+    public TokenCacheStats getStats() {
+        int size;
+        if (map instanceof ConcurrentHashMap) {
+            size = map.size();
+        } else {
+            synchronized (map) {
+                size = map.size();
+            }
+        }
+        return new TokenCacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private Cached get(String expression) {
+        if (map instanceof ConcurrentHashMap) {
+            return map.get(expression);
+        }
+        synchronized (map) {
+            return map.get(expression);
+        }
+    }
+
+    // replace an entry of an old grammar
+    private void put(String expression, Cached entry) {
+        if (map instanceof ConcurrentHashMap) {
+            map.put(expression, entry);
+            return;
+        }
+        synchronized (map) {
+            map.put(expression, entry);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Cached {
+
+        final LexGrammar grammar;
+        final TokenArray tokens;
+    }
+}
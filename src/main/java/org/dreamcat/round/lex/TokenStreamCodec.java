@@ -0,0 +1,300 @@
+package org.dreamcat.round.lex;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.dreamcat.round.exception.RoundException;
+
+/**
+ * binary format of a lexed stream, to ship it without lexing it again,
+ * the tokens are decoded by the grammar and caches of the lexer,
+ * so keywords and operators are the same instances as lexed
+ * <pre>
+ * magic "RLEX", version byte, flags byte (1: with source, 2: the offsets are of UTF-8 bytes)
+ * first line no, first col (zigzag varint)
+ * source (varint byte length, UTF-8 bytes) or line starts (varint count, varint deltas)
+ * entries: varint count, then type byte, varint byte length, UTF-8 raw text
+ * tokens: varint count, then varint entry, varint gap after the last token, varint width
+ * </pre>
+ *
+ * @author Jerry Will
+ * @version 2022-09-14
+ */
+public final class TokenStreamCodec {
+
+    private static final int MAGIC = 0x524c4558; // RLEX
+    private static final byte VERSION = 1;
+    private static final byte WITH_SOURCE = 1;
+    private static final byte UTF8 = 2;
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private final Lexer lexer;
+
+    public TokenStreamCodec(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * @param stream     a stream lexed from a string or bytes, its offset is not changed
+     * @param withSource write the expression too, or only its line starts,
+     *                   a stream lexed from bytes is written with its bytes
+     * @return encoded bytes
+     * @throws IllegalArgumentException if the stream is lexed from bytes but not written with them,
+     *                                  since its cols are counted by the chars of the bytes
+     */
+    public byte[] encode(TokenStream stream, boolean withSource) {
+        if (!(stream instanceof SimpleTokenStream)) {
+            throw new IllegalArgumentException("unsupported stream: " + stream.getClass());
+        }
+        SimpleTokenStream simple = (SimpleTokenStream) stream;
+        TokenBuffer tokens = simple.tokens();
+        LineIndex lineIndex = stream.getLineIndex();
+        Utf8Source utf8 = simple.source() instanceof Utf8Source ? (Utf8Source) simple.source() : null;
+        if (utf8 != null && !withSource) {
+            throw new IllegalArgumentException("a stream lexed from bytes is encoded with its source");
+        }
+        String expression = withSource ? stream.getExpression() : null;
+
+        Output out = new Output();
+        out.writeInt(MAGIC);
+        out.write(VERSION);
+        out.write(utf8 != null ? WITH_SOURCE | UTF8 : expression != null ? WITH_SOURCE : 0);
+        out.writeSignedVarint(lineIndex.getFirstLineNo());
+        out.writeSignedVarint(lineIndex.getFirstCol());
+        if (utf8 != null) {
+            out.writeBytes(utf8.toBytes());
+        } else if (expression != null) {
+            out.writeString(expression);
+        } else {
+            int[] lineStarts = lineIndex.getLineStarts();
+            out.writeVarint(lineStarts.length);
+            for (int k = 0; k < lineStarts.length; k++) {
+                out.writeVarint(lineStarts[k] - (k > 0 ? lineStarts[k - 1] : 0));
+            }
+        }
+
+        // one entry for the same type and raw text
+        int size = tokens.size();
+        int[] entryOf = new int[size];
+        Output entries = new Output();
+        int entryCount = 0;
+        List<Map<String, Integer>> entryIndexes = newEntryIndexes();
+        for (int i = 0; i < size; i++) {
+            Token.Type type = tokens.type(i);
+            String raw = tokens.token(i).getRaw();
+            Integer entry = entryIndexes.get(type.ordinal()).get(raw);
+            if (entry == null) {
+                entryIndexes.get(type.ordinal()).put(raw, entry = entryCount++);
+                entries.write(type.ordinal());
+                entries.writeString(raw);
+            }
+            entryOf[i] = entry;
+        }
+        out.writeVarint(entryCount);
+        entries.writeTo(out);
+
+        out.writeVarint(size);
+        int last = 0;
+        for (int i = 0; i < size; i++) {
+            int start = tokens.start(i), end = tokens.end(i);
+            out.writeVarint(entryOf[i]);
+            out.writeVarint(start - last);
+            out.writeVarint(end - start);
+            last = end;
+        }
+        return out.toByteArray();
+    }
+
+    public TokenStream decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @param buffer encoded bytes from its position, the position is moved after them
+     * @return a stream as lexed, without the expression if it was not written
+     */
+    public TokenStream decode(ByteBuffer buffer) {
+        return decode(buffer, null);
+    }
+
+    /**
+     * @param expression expression of the stream if it was encoded without source
+     */
+    TokenStream decode(ByteBuffer buffer, String expression) {
+        try {
+            return decode0(buffer, expression);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new RoundException("malformed token stream", e);
+        }
+    }
+
+    private TokenStream decode0(ByteBuffer in, String expression) {
+        if (in.getInt() != MAGIC) {
+            throw new RoundException("not a token stream");
+        }
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new RoundException("unsupported token stream version: " + version);
+        }
+        byte flags = in.get();
+        int firstLineNo = readSignedVarint(in), firstCol = readSignedVarint(in);
+
+        int[] lineStarts = null;
+        CharSequence source = expression;
+        if ((flags & UTF8) != 0) {
+            if ((flags & WITH_SOURCE) == 0) {
+                throw new RoundException("no source of the UTF-8 offsets in token stream");
+            }
+            // the cols are counted by the chars of the bytes, as the stream is lexed
+            source = new Utf8Source(ByteBuffer.wrap(readBytes(in)));
+        } else if ((flags & WITH_SOURCE) != 0) {
+            source = readString(in);
+        } else {
+            lineStarts = new int[readCount(in)];
+            for (int k = 0; k < lineStarts.length; k++) {
+                lineStarts[k] = (k > 0 ? lineStarts[k - 1] : 0) + readVarint(in);
+            }
+        }
+
+        // resolve each entry once, a cached token of ascii raw text is found by the bytes
+        Scanner scanner = lexer.newScanner();
+        Utf8Source bytes = new Utf8Source((ByteBuffer) in.duplicate().rewind());
+        Token[] entries = new Token[readCount(in)];
+        for (int k = 0; k < entries.length; k++) {
+            Token.Type type = TYPES[in.get()];
+            int length = readCount(in), start = in.position(), end = start + length;
+            if (isAscii(in, start, end)) {
+                entries[k] = scanner.tokenOf(type, bytes, start, end);
+            } else {
+                String raw = bytes.subSequence(start, end).toString();
+                entries[k] = scanner.tokenOf(type, raw, 0, raw.length());
+            }
+            if (entries[k] == null) {
+                throw new RoundException("no such " + type + " in the grammar: " +
+                        bytes.subSequence(start, end));
+            }
+            in.position(end);
+        }
+
+        int size = readCount(in);
+        TokenBuffer tokens = new TokenBuffer(size);
+        int last = 0;
+        for (int i = 0; i < size; i++) {
+            Token token = entries[readVarint(in)];
+            int start = last + readVarint(in), end = start + readVarint(in);
+            if (start < last || end < start) {
+                throw new RoundException("malformed token offsets in token stream");
+            }
+            tokens.add(token, start, last = end);
+        }
+        if (source != null && last > source.length()) {
+            throw new RoundException("token stream out of the expression");
+        }
+
+        SimpleTokenStream stream = source != null ?
+                new SimpleTokenStream(source, lexer.config, tokens) :
+                new SimpleTokenStream(lineStarts, lexer.config, tokens);
+        stream.setFirstLineNo(firstLineNo);
+        stream.setFirstCol(firstCol);
+        return stream;
+    }
+
+    // indexed by the ordinal of the token type
+    private static List<Map<String, Integer>> newEntryIndexes() {
+        List<Map<String, Integer>> indexes = new ArrayList<>(TYPES.length);
+        for (int k = 0; k < TYPES.length; k++) indexes.add(new HashMap<>());
+        return indexes;
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+            if (shift >= 28) throw new RoundException("malformed varint in token stream");
+        }
+    }
+
+    // a count of the items or bytes which follow, each item takes one byte at least
+    private static int readCount(ByteBuffer in) {
+        int count = readVarint(in);
+        if (count < 0 || count > in.remaining()) {
+            throw new RoundException("malformed count in token stream: " + count);
+        }
+        return count;
+    }
+
+    private static int readSignedVarint(ByteBuffer in) {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static boolean isAscii(ByteBuffer in, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (in.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[readCount(in)];
+        in.get(bytes);
+        return bytes;
+    }
+
+    // no copy for a heap buffer
+    private static String readString(ByteBuffer in) {
+        int length = readCount(in);
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeSignedVarint(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        void writeString(String s) {
+            writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeTo(Output out) {
+            out.write(buf, 0, count);
+        }
+    }
+}
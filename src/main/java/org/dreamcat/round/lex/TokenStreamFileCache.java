@@ -0,0 +1,183 @@
+package org.dreamcat.round.lex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+import org.dreamcat.round.exception.RoundException;
+
+/**
+ * cache of the lexed expressions in a directory, which outlives the process,
+ * a file is keyed by the hash of the expression and the grammar of the config,
+ * so a changed config misses the files of the old one, and they can be removed by {@link #clear()}
+ * <p>
+ * a hit maps the file and decodes the tokens by {@link TokenStreamCodec}, no expression is lexed
+ *
+ * @author Jerry Will
+ * @version 2022-09-15
+ */
+public class TokenStreamFileCache {
+
+    private static final String SUFFIX = ".rlex";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Lexer lexer;
+    private final Path directory;
+    private final TokenStreamCodec codec;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param directory directory of the cache files, created if absent,
+     *                  it can be shared by the processes of the same version
+     */
+    public TokenStreamFileCache(Lexer lexer, Path directory) {
+        this.lexer = lexer;
+        this.directory = directory;
+        this.codec = new TokenStreamCodec(lexer);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RoundException(e);
+        }
+    }
+
+    /**
+     * lex the file or get its cached tokens, the file is decoded to a string only if it is missed
+     *
+     * @param file UTF-8 file
+     * @return a new stream at the head, the stream of a hit has no expression
+     */
+    public TokenStream lex(Path file) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new RoundException(e);
+        }
+        LexGrammar grammar = lexer.config.compile();
+        Path path = directory.resolve(keyOf(bytes, grammar) + SUFFIX);
+
+        TokenStream stream = read(path, null);
+        if (stream != null) {
+            hits.increment();
+            return stream;
+        }
+        misses.increment();
+        return lexAndWrite(path, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * lex the expression or get its cached tokens
+     *
+     * @param expression expression code
+     * @return a new stream at the head
+     */
+    public TokenStream lex(String expression) {
+        LexGrammar grammar = lexer.config.compile();
+        Path path = directory.resolve(keyOf(expression.getBytes(StandardCharsets.UTF_8), grammar) + SUFFIX);
+
+        TokenStream stream = read(path, expression);
+        if (stream != null) {
+            hits.increment();
+            return stream;
+        }
+        misses.increment();
+        return lexAndWrite(path, expression);
+    }
+
+    /**
+     * remove all cache files, such as the ones of an old config
+     */
+    public void clear() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new RoundException(e);
+        }
+    }
+
+    /**
+     * @return stats of the lookups in this process, the size is not counted
+     */
+    public TokenCacheStats getStats() {
+        return new TokenCacheStats(hits.sum(), misses.sum(), 0, 0);
+    }
+
+    private TokenStream lexAndWrite(Path path, String expression) {
+        TokenStream stream = lexer.lex(expression);
+        write(path, codec.encode(stream, false));
+        return stream;
+    }
+
+    // null if absent or broken, a broken file is removed and written again
+    private TokenStream read(Path path, String expression) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return codec.decode(buffer, expression);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RoundException e) {
+            // the codec throws a RoundException for a malformed file
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // written again later
+            }
+            return null;
+        }
+    }
+
+    // to a temp file then move it, so a reader never sees a partial file
+    private void write(Path path, byte[] bytes) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // the cache is optional, the expression is lexed anyway
+            try {
+                if (temp != null) Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // left in the directory
+            }
+        }
+    }
+
+    private static String keyOf(byte[] expression, LexGrammar grammar) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RoundException(e);
+        }
+        digest.update(grammar.fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(expression);
+
+        byte[] hash = digest.digest();
+        char[] chars = new char[hash.length << 1];
+        for (int k = 0; k < hash.length; k++) {
+            chars[k << 1] = HEX[(hash[k] >> 4) & 0xf];
+            chars[(k << 1) + 1] = HEX[hash[k] & 0xf];
+        }
+        return new String(chars);
+    }
+}
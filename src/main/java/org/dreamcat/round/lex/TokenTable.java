@@ -0,0 +1,90 @@
+package org.dreamcat.round.lex;
+
+/**
+ * open-addressed table of tokens keyed by their raw text,
+ * which can be looked up by a char range of the source without a substring,
+ * the hash of a range is the same as {@link String#hashCode()} of its chars;
+ * not thread-safe to put, but a racy get sees either null or a complete token
+ *
+ * @author Jerry Will
+ * @version 2022-09-10
+ */
+final class TokenTable<T extends Token> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Token[] slots;
+    private final int mask;
+    private int size;
+
+    TokenTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private TokenTable(int capacity) {
+        this.slots = new Token[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param hash hash of the chars in [start, end)
+     * @return token whose raw text equals the chars, or null
+     */
+    @SuppressWarnings("unchecked")
+    T get(CharSequence src, int start, int end, int hash) {
+        Token[] slots = this.slots;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Token token = slots[i];
+            if (token == null) return null;
+            String raw = token.getRaw();
+            if (raw.hashCode() == hash && rangeEquals(raw, src, start, end)) {
+                return (T) token;
+            }
+        }
+    }
+
+    T get(String raw) {
+        return get(raw, 0, raw.length(), raw.hashCode());
+    }
+
+    /**
+     * put the token if its raw text is absent
+     *
+     * @return the table to put next, a larger one if this table is full
+     */
+    TokenTable<T> put(T token) {
+        String raw = token.getRaw();
+        int i = raw.hashCode() & mask;
+        for (Token slot; (slot = slots[i]) != null; i = (i + 1) & mask) {
+            if (slot.getRaw().equals(raw)) return this;
+        }
+        slots[i] = token;
+        // keep half of the slots empty so a probe ends soon
+        if (++size << 1 > slots.length) {
+            return grow();
+        }
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private TokenTable<T> grow() {
+        TokenTable<T> table = new TokenTable<>(slots.length << 1);
+        for (Token token : slots) {
+            if (token != null) table.put((T) token);
+        }
+        return table;
+    }
+
+    private static boolean rangeEquals(String raw, CharSequence src, int start, int end) {
+        int width = raw.length();
+        if (width != end - start) return false;
+        for (int k = 0; k < width; k++) {
+            if (raw.charAt(k) != src.charAt(start + k)) return false;
+        }
+        return true;
+    }
+}
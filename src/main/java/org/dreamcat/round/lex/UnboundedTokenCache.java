@@ -0,0 +1,49 @@
+package org.dreamcat.round.lex;
+
+import java.util.function.Function;
+
+/**
+ * lock-free to get a cached token, locked to cache a new one
+ *
+ * @author Jerry Will
+ * @version 2022-08-30
+ */
+class UnboundedTokenCache<T extends Token> extends AbstractTokenCache<T> {
+
+    private volatile TokenTable<T> table = new TokenTable<>();
+
+    @Override
+    public T get(String raw, Function<String, ? extends T> factory) {
+        return get(raw, 0, raw.length(), raw.hashCode(), factory);
+    }
+
+    @Override
+    public T get(CharSequence src, int start, int end, int hash,
+            Function<String, ? extends T> factory) {
+        T token = table.get(src, start, end, hash);
+        if (token != null) {
+            hits.increment();
+            return token;
+        }
+        misses.increment();
+        synchronized (this) {
+            TokenTable<T> table = this.table;
+            token = table.get(src, start, end, hash);
+            if (token == null) {
+                token = factory.apply(src.subSequence(start, end).toString());
+                this.table = table.put(token);
+            }
+            return token;
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        table = new TokenTable<>();
+    }
+
+    @Override
+    int size() {
+        return table.size();
+    }
+}
@@ -0,0 +1,35 @@
+package org.dreamcat.round.lex;
+
+import java.util.Objects;
+
+/**
+ * user-defined operator of a dialect, such as {@code =>} or {@code ??},
+ * its type is {@link Type#OPERATOR}, but {@link #isOperator()} is false
+ * since it is not one of the {@link OperatorToken}
+ *
+ * @author Jerry Will
+ * @version 2022-09-11
+ * @see LexConfig#addOperator(Token)
+ */
+public class UserOperatorToken extends AbstractToken {
+
+    public UserOperatorToken(String rawToken) {
+        super(Type.OPERATOR, rawToken);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o instanceof UserOperatorToken) {
+            return Objects.equals(raw, ((UserOperatorToken) o).raw);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(raw);
+    }
+}
@@ -0,0 +1,146 @@
+package org.dreamcat.round.lex;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 bytes seen as chars indexed by the byte offset,
+ * every byte of a multibyte char is seen as the decoded char,
+ * so the char classes work on bytes without decoding the whole input
+ *
+ * @author Jerry Will
+ * @version 2022-08-27
+ */
+final class Utf8Source implements CharSequence {
+
+    private static final char MALFORMED = '\uFFFD';
+
+    private final ByteBuffer buffer;
+    private final int base; // position of the buffer
+    private final int length;
+    private final byte[] array; // backing array of a heap buffer
+    private final int arrayOffset;
+
+    Utf8Source(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.base = buffer.position();
+        this.length = buffer.remaining();
+        if (buffer.hasArray()) {
+            this.array = buffer.array();
+            this.arrayOffset = buffer.arrayOffset() + base;
+        } else {
+            this.array = null;
+            this.arrayOffset = 0;
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        byte b = byteAt(index);
+        return b >= 0 ? (char) b : decode(index);
+    }
+
+    /**
+     * decode the bytes to a string
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (array != null) {
+            return new String(array, arrayOffset + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(base + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /**
+     * @param bytes UTF-8 bytes of some chars
+     * @return count of the leading bytes which are at the index, before the limit
+     */
+    int prefix(int index, int limit, byte[] bytes) {
+        int k = 0;
+        while (k < bytes.length && index + k < limit && byteAt(index + k) == bytes[k]) k++;
+        return k;
+    }
+
+    /**
+     * @return a copy of the bytes
+     */
+    byte[] toBytes() {
+        byte[] bytes = new byte[length];
+        if (array != null) {
+            System.arraycopy(array, arrayOffset, bytes, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) bytes[i] = buffer.get(base + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * count the UTF-16 chars in the bytes as {@link String#length()} does,
+     * a supplementary char is counted as 2, a malformed byte is counted as a char
+     */
+    int charCount(int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            byte b = byteAt(i);
+            if (!isContinuation(b)) count += (b & 0xf8) == 0xf0 ? 2 : 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return offset of the first byte of the char which the byte at the index belongs to
+     */
+    int charStart(int index) {
+        int lead = index;
+        while (lead > 0 && index - lead < 3 && isContinuation(byteAt(lead))) lead--;
+        return lead;
+    }
+
+    private byte byteAt(int index) {
+        return array != null ? array[arrayOffset + index] : buffer.get(base + index);
+    }
+
+    // decode the char which the byte at the index belongs to
+    private char decode(int index) {
+        int lead = charStart(index);
+        int b = byteAt(lead) & 0xff, width, codePoint;
+        if (b < 0xc0) return MALFORMED;
+        else if (b < 0xe0) {
+            width = 2;
+            codePoint = b & 0x1f;
+        } else if (b < 0xf0) {
+            width = 3;
+            codePoint = b & 0x0f;
+        } else if (b < 0xf8) {
+            width = 4;
+            codePoint = b & 0x07;
+        } else return MALFORMED;
+        if (lead + width <= index || lead + width > length) return MALFORMED;
+
+        for (int i = lead + 1; i < lead + width; i++) {
+            b = byteAt(i);
+            if (!isContinuation((byte) b)) return MALFORMED;
+            codePoint = codePoint << 6 | (b & 0x3f);
+        }
+        return codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT ?
+                (char) codePoint : Character.highSurrogate(codePoint);
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xc0) == 0x80;
+    }
+}
@@ -27,7 +27,7 @@ public abstract class ValueToken<T> extends AbstractToken {
         if (this == o) {
             return true;
         } else if (o instanceof ValueToken) {
-            return Objects.equals(value, ((ValueToken<?>) o).value);
+            return Objects.equals(getValue(), ((ValueToken<?>) o).getValue());
         } else {
             return false;
         }
@@ -35,6 +35,6 @@ public abstract class ValueToken<T> extends AbstractToken {
 
     @Override
     public int hashCode() {
-        return Objects.hash(value);
+        return Objects.hash(getValue());
     }
 }
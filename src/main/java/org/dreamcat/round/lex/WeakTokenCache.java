@@ -0,0 +1,64 @@
+package org.dreamcat.round.lex;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * @author Jerry Will
+ * @version 2022-08-30
+ */
+class WeakTokenCache<T extends Token> extends AbstractTokenCache<T> {
+
+    private final Map<String, Ref<T>> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    @Override
+    public T get(String raw, Function<String, ? extends T> factory) {
+        purge();
+        Ref<T> ref = map.get(raw);
+        T token = ref != null ? ref.get() : null;
+        if (token != null) {
+            hits.increment();
+            return token;
+        }
+        misses.increment();
+        token = factory.apply(raw);
+        map.put(raw, new Ref<>(raw, token, queue));
+        return token;
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    int size() {
+        purge();
+        return map.size();
+    }
+
+    // drop the collected tokens
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        Ref<T> ref;
+        while ((ref = (Ref<T>) queue.poll()) != null) {
+            if (map.remove(ref.raw, ref)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static class Ref<T> extends WeakReference<T> {
+
+        final String raw;
+
+        Ref(String raw, T token, ReferenceQueue<T> queue) {
+            super(token, queue);
+            this.raw = raw;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.dreamcat.round.lex;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * flight recorder event of a lex, only a lex slower than the threshold is recorded,
+ * such as {@code -XX:StartFlightRecording:settings=profile,org.dreamcat.round.Lex#threshold=1ms}
+ *
+ * @author Jerry Will
+ * @version 2022-09-17
+ */
+@Name("org.dreamcat.round.Lex")
+@Label("Lex")
+@Category("Round")
+@Description("An expression lexed by a lexer")
+@StackTrace(false)
+@Threshold("10 ms")
+class LexEvent extends Event {
+
+    private static final int SAMPLE_SIZE = 256;
+
+    @Label("Length")
+    @Description("Length of the expression, byte count of a UTF-8 input")
+    int length;
+    @Label("Token Count")
+    int tokenCount = -1;
+    @Label("Error Offset")
+    @Description("Offset of the invalid char, or -1 if lexed")
+    int errorOffset = -1;
+    @Label("Identifier Cache Hits")
+    @Description("Hits of the identifier cache of the lexer until the lex")
+    long identifierCacheHits;
+    @Label("Number Cache Hits")
+    @Description("Hits of the number cache of the lexer until the lex")
+    long numberCacheHits;
+    @Label("Expression")
+    @Description("Leading chars of the expression")
+    String expression;
+
+    /**
+     * @return event which begins now
+     */
+    static LexEvent start() {
+        LexEvent event = new LexEvent();
+        event.begin();
+        return event;
+    }
+
+    void lexed(Lexer lexer, TokenStream stream, int length) {
+        end();
+        if (!shouldCommit()) return;
+        if (stream instanceof SimpleTokenStream) {
+            tokenCount = ((SimpleTokenStream) stream).tokens().size();
+        }
+        String expression = stream.getExpression();
+        if (expression != null) {
+            this.expression = expression.length() > SAMPLE_SIZE ?
+                    expression.substring(0, SAMPLE_SIZE) : expression;
+        }
+        commit(lexer, length);
+    }
+
+    void failed(Lexer lexer, int length, int offset) {
+        end();
+        if (!shouldCommit()) return;
+        errorOffset = offset;
+        commit(lexer, length);
+    }
+
+    private void commit(Lexer lexer, int length) {
+        this.length = length;
+        identifierCacheHits = lexer.getIdentifierCache().getStats().getHitCount();
+        numberCacheHits = lexer.getNumberCache().getStats().getHitCount();
+        commit();
+    }
+}
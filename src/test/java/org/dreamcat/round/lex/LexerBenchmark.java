@@ -0,0 +1,135 @@
+package org.dreamcat.round.lex;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * gradle jmh -Pjmh=LexerBenchmark, or run the main method,
+ * gc.alloc.rate.norm of the gc profiler is the allocation per expression
+ *
+ * @author Jerry Will
+ * @version 2022-09-08
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexerBenchmark {
+
+    private static final int LARGE_SIZE = 1 << 16;
+
+    @Param({"rule", "script", "comment", "string", "number", "unicode"})
+    private String corpus;
+
+    private String expression;
+    private LexConfig config;
+    private Lexer lexer; // warm caches
+    private SimpleTokenStream stream;
+    private TokenArray tokens;
+    private TokenStreamCodec codec;
+    private byte[] encoded; // without source
+
+    @Setup(Level.Trial)
+    public void setup() {
+        expression = corpus(corpus);
+        config = new LexConfig();
+        lexer = new Lexer(config);
+        stream = (SimpleTokenStream) lexer.lex(expression);
+        tokens = stream.toArray();
+        codec = new TokenStreamCodec(lexer);
+        encoded = codec.encode(stream, false);
+    }
+
+    @Benchmark
+    public TokenStream lex() {
+        return lexer.lex(expression);
+    }
+
+    // every identifier and number misses the caches
+    @Benchmark
+    public TokenStream lexCold() {
+        return new Lexer(config).lex(expression);
+    }
+
+    @Benchmark
+    public TokenStream decode() {
+        return codec.decode(encoded);
+    }
+
+    @Benchmark
+    public void next(Blackhole blackhole) {
+        TokenStream s = tokens.stream();
+        while (s.hasNext()) {
+            blackhole.consume(s.next());
+        }
+    }
+
+    // materialize the token info with line and col
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        TokenStream s = tokens.stream();
+        while (s.hasNext()) {
+            blackhole.consume(s.get());
+            s.next();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LexerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    static String corpus(String name) {
+        switch (name) {
+            case "rule":
+                return "user.age >= 18 and (user.level == 'vip' or order.amount > 1000.5)";
+            case "script":
+                return repeat(i -> String.format(
+                        "var%d = foo(a%d, b.c[%d]) + %d * bar%d;\nif (var%d != null) { x%d = var%d; }\n",
+                        i, i % 64, i % 8, i, i % 32, i, i % 16, i));
+            case "comment":
+                return repeat(i -> String.format(
+                        "/* block comment %d\n * over lines\n */\nx%d = 1; // line comment %d\n", i, i % 16, i));
+            case "string":
+                return repeat(i -> String.format(
+                        "s%d = 'a single quoted \\'string\\' %d' + \"a double quoted string %d\";\n", i % 16, i, i));
+            case "number":
+                return repeat(i -> String.format(
+                        "n = [%d, %d.%d, %de%d, 0.%d, %d];\n", i, i, i % 100, i % 10, i % 8, i, i * 31));
+            case "unicode":
+                return repeat(i -> String.format(
+                        "name%d = '名字 %d 名前 이름' + 'Ünïcödé %d'; // 注释 %d\n", i % 16, i, i, i));
+            default:
+                throw new IllegalArgumentException("unknown corpus: " + name);
+        }
+    }
+
+    private static String repeat(IntFunction<String> line) {
+        StringBuilder sb = new StringBuilder(LARGE_SIZE + 128);
+        for (int i = 0; sb.length() < LARGE_SIZE; i++) {
+            sb.append(line.apply(i));
+        }
+        return sb.toString();
+    }
+}
@@ -2,9 +2,21 @@ package org.dreamcat.round.lex;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.dreamcat.common.Pair;
 import org.dreamcat.common.io.ClassPathUtil;
+import org.dreamcat.round.exception.LexCompileException;
+import org.dreamcat.round.exception.RoundException;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -37,4 +49,799 @@ class LexerTest {
             stream.next();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testComment() {
+        LexConfig config = new LexConfig()
+                .setSingleComments(Arrays.asList("#", "--"))
+                .setMultipleComments(Collections.singletonList(Pair.of("{-", "-}")));
+        Lexer lexer = new Lexer(config);
+        TokenStream stream = lexer.lex("a - {- b -} -1 # c\n{d} -- e");
+        StringBuilder s = new StringBuilder();
+        while (stream.hasNext()) {
+            TokenInfo tokenInfo = stream.get();
+            System.out.println(tokenInfo);
+            s.append(stream.next().getType().name().charAt(0));
+        }
+        assert s.toString().equals("IOCONCPIPC");
+    }
+
+    @Test
+    void testReader() {
+        String expression = "/* a block comment\n longer than the buffer */ f(1234567.5e-3, 'a string\\' " +
+                "longer than the buffer', `b`) // a line comment\n  x..y >= 12 && abcdefghijklmnopqrstuvwxyz";
+        Lexer lexer = new Lexer(new LexConfig());
+        TokenStream expected = lexer.lex(expression);
+        TokenStream stream = lexer.lex(new StringReader(expression), 16);
+        while (expected.hasNext()) {
+            assert stream.hasNext();
+            String tokenInfo = stream.get().toString();
+            System.out.println(tokenInfo);
+            assert tokenInfo.equals(expected.get().toString());
+            assert stream.next().getType() == expected.next().getType();
+        }
+        assert !stream.hasNext();
+    }
+
+    @Test
+    void testUtf8() {
+        String expression = "名字 + 'ünïcödé 😀' /* 注释 */ -\n  größe * 1.5 + '😀' + x";
+        byte[] bytes = expression.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        direct.flip();
+
+        Lexer lexer = new Lexer(new LexConfig());
+        for (ByteBuffer buffer : Arrays.asList(ByteBuffer.wrap(bytes), direct)) {
+            TokenStream expected = lexer.lex(expression);
+            TokenStream stream = lexer.lex(buffer);
+            while (expected.hasNext()) {
+                TokenInfo tokenInfo = stream.get(), expectedInfo = expected.get();
+                System.out.println(tokenInfo);
+                assert tokenInfo.getToken().getRaw().equals(expectedInfo.getToken().getRaw());
+                assert tokenInfo.getStartLine() == expectedInfo.getStartLine();
+                assert tokenInfo.getStartCol() == expectedInfo.getStartCol();
+                assert new String(bytes, tokenInfo.getStart(),
+                        tokenInfo.getEnd() - tokenInfo.getStart(), StandardCharsets.UTF_8)
+                        .equals(expectedInfo.getToken().getRaw());
+                stream.next();
+                expected.next();
+            }
+            assert !stream.hasNext();
+        }
+
+        // the same line and col of an invalid char at the end
+        for (String invalid : Arrays.asList(".ß1a\"é", "'😀' + 'a😀")) {
+            String expected = null, actual = null;
+            try {
+                lexer.lex(invalid);
+            } catch (LexCompileException e) {
+                expected = e.getLine() + ":" + e.getCol();
+            }
+            try {
+                lexer.lex(ByteBuffer.wrap(invalid.getBytes(StandardCharsets.UTF_8)));
+            } catch (LexCompileException e) {
+                actual = e.getLine() + ":" + e.getCol();
+            }
+            System.out.println(invalid + ": " + expected + ", " + actual);
+            assert expected != null && expected.equals(actual);
+        }
+
+        // non-ascii comment delimiters
+        lexer = new Lexer(new LexConfig()
+                .setSingleComments(Collections.singletonList("§"))
+                .setMultipleComments(Collections.singletonList(Pair.of("«", "»"))));
+        String commented = "a § b\n«c» + «名»名 § 😀";
+        TokenStream expected = lexer.lex(commented);
+        TokenStream stream = lexer.lex(ByteBuffer.wrap(commented.getBytes(StandardCharsets.UTF_8)));
+        while (expected.hasNext()) {
+            TokenInfo tokenInfo = stream.get(), expectedInfo = expected.get();
+            System.out.println(tokenInfo);
+            assert tokenInfo.getToken().getRaw().equals(expectedInfo.getToken().getRaw());
+            assert tokenInfo.getStartCol() == expectedInfo.getStartCol();
+            stream.next();
+            expected.next();
+        }
+        assert !stream.hasNext();
+    }
+
+    @Test
+    void testLineCol() {
+        Lexer lexer = new Lexer(new LexConfig());
+        // mid-line, at the start of a line, after spaces of a line
+        Object[][] cases = {{"a + \\ b", 1, 5}, {"a +\n\\ b", 2, 1}, {"a\n  b \\", 2, 5}};
+        for (Object[] c : cases) {
+            String expression = (String) c[0];
+            int line = (int) c[1], col = (int) c[2];
+            try {
+                lexer.lex(expression);
+                assert false;
+            } catch (LexCompileException e) {
+                System.out.println(e.getMessage());
+                assert e.getLine() == line && e.getCol() == col;
+            }
+            LexError error = lexer.diagnose(expression).getErrors().get(0);
+            assert error.getLine() == line && error.getCol() == col;
+        }
+    }
+
+    @Test
+    void testRelex() {
+        Lexer lexer = new Lexer(new LexConfig());
+        String expression = "a = 1. + foo(bar, 'baz') // c\n/* d */ x <= y";
+        TokenStream stream = lexer.lex(expression);
+        Object[][] edits = {
+                {6, 0, "5"}, // 1.5
+                {1, 0, "bc"}, // abc
+                {0, 0, "/*"}, // open a comment
+                {0, 2, ""}, // close it
+                {22, 5, "\n"}, // drop the line comment
+                {3, 0, "<"}, // <=
+        };
+        for (Object[] edit : edits) {
+            int offset = (int) edit[0], removed = (int) edit[1];
+            String inserted = (String) edit[2], old = stream.getExpression();
+            expression = old.substring(0, offset) + inserted + old.substring(offset + removed);
+            TokenStream expected;
+            try {
+                expected = lexer.lex(expression);
+            } catch (LexCompileException e) {
+                try {
+                    lexer.relex(stream, offset, removed, inserted);
+                    assert false;
+                } catch (LexCompileException ignored) {
+                }
+                continue;
+            }
+
+            stream = lexer.relex(stream, offset, removed, inserted);
+            System.out.println(expression);
+            while (expected.hasNext()) {
+                assert stream.get().toString().equals(expected.get().toString());
+                assert stream.next().getType() == expected.next().getType();
+            }
+            assert !stream.hasNext();
+            stream.reset();
+        }
+
+        // a comment opener is longer than the tokens before the edit
+        lexer = new Lexer(new LexConfig()
+                .setMultipleComments(Collections.singletonList(Pair.of("<!--", "-->"))));
+        stream = lexer.relex(lexer.lex("<!-x y -->"), 3, 1, "-");
+        TokenStream expected = lexer.lex("<!-- y -->");
+        while (expected.hasNext()) {
+            assert stream.get().toString().equals(expected.get().toString());
+            assert stream.next().getType() == expected.next().getType();
+        }
+        assert !stream.hasNext();
+
+        // a comment added after the lex is in the tokens before the edit too
+        LexConfig config = new LexConfig();
+        lexer = new Lexer(config);
+        stream = lexer.lex("a -- b + c");
+        config.setSingleComments(Collections.singletonList("--"));
+        stream = lexer.relex(stream, 9, 1, "d");
+        expected = lexer.lex("a -- b + d");
+        while (expected.hasNext()) {
+            assert stream.get().toString().equals(expected.get().toString());
+            assert stream.next().getType() == expected.next().getType();
+        }
+        assert !stream.hasNext();
+
+        // a keyword added after the lex is in the tokens before the edit too
+        config = new LexConfig();
+        lexer = new Lexer(config);
+        stream = lexer.lex("let a = let + b");
+        IdentifierToken let = new IdentifierToken("let");
+        config.addKeyword(let);
+        stream = lexer.relex(stream, 14, 1, "c");
+        assert stream.next() == let;
+        assert stream.getExpression().equals("let a = let + c");
+
+        try {
+            lexer.relex(lexer.lex(ByteBuffer.wrap("a b".getBytes(StandardCharsets.UTF_8))), 1, 0, "c");
+            assert false;
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    void testCache() {
+        Lexer lexer = new Lexer(new LexConfig(), TokenCache.lru(2), TokenCache.weak());
+        lexer.lex("a + b + a + c + 1 + 1");
+        TokenCacheStats stats = lexer.getIdentifierCache().getStats();
+        System.out.println(stats);
+        assert stats.getHitCount() == 1 && stats.getMissCount() == 3;
+        assert stats.getEvictionCount() == 1 && stats.getSize() == 2;
+
+        stats = lexer.getNumberCache().getStats();
+        System.out.println(stats);
+        assert stats.getHitCount() == 1 && stats.getMissCount() == 1;
+
+        // a large cache is locked by segments, and evicts in each of them
+        lexer = new Lexer(new LexConfig(), TokenCache.lru(256), TokenCache.weak());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) sb.append("a").append(i % 500).append(" + ");
+        String expression = sb.append("b").toString();
+        for (int i = 0; i < 8; i++) lexer.lex(expression);
+        stats = lexer.getIdentifierCache().getStats();
+        System.out.println(stats);
+        assert stats.getSize() <= 256 && stats.getSize() + stats.getEvictionCount() == stats.getMissCount();
+        assert stats.getHitCount() + stats.getMissCount() == 8 * 1001;
+        TokenStream stream = lexer.lex("b + b");
+        Token b = stream.next();
+        stream.next();
+        assert stream.next() == b;
+    }
+
+    @Test
+    void testStreamCache() {
+        TokenStreamCache cache = new TokenStreamCache(new Lexer(new LexConfig()), 16);
+        TokenStream stream = cache.lex("a + 1");
+        stream.next();
+        TokenStream another = cache.lex("a + 1");
+        assert another.get().getToken().isIdentifier();
+        assert stream.get().getToken().isOperator();
+
+        TokenCacheStats stats = cache.getStats();
+        System.out.println(stats);
+        assert stats.getHitCount() == 1 && stats.getMissCount() == 1;
+
+        // a new comment is not missed by the cached tokens
+        LexConfig config = new LexConfig();
+        cache = new TokenStreamCache(new Lexer(config), 0);
+        stream = cache.lex("a -- b");
+        stream.next();
+        assert stream.next().getType() == Token.Type.OPERATOR;
+        config.setSingleComments(Collections.singletonList("--"));
+        stream = cache.lex("a -- b");
+        stream.next();
+        assert stream.next().getType() == Token.Type.COMMENT;
+        assert cache.getStats().getMissCount() == 2 && cache.getStats().getSize() == 1;
+
+        // a new keyword is not missed by the cached tokens
+        config = new LexConfig();
+        cache = new TokenStreamCache(new Lexer(config), 0);
+        assert cache.lex("let a").next().getType() == Token.Type.IDENTIFIER;
+        IdentifierToken let = new IdentifierToken("let");
+        config.addKeyword(let);
+        assert cache.lex("let a").next() == let;
+        assert cache.getStats().getMissCount() == 2 && cache.getStats().getSize() == 1;
+    }
+
+    @Test
+    void testChunk() {
+        String expression = "a = 'a string\n crossing lines' + 1\n" +
+                "/* a comment\n crossing\n lines */ b\n" +
+                "c // a line comment\n" +
+                "d >= `e\n\nf` && g\n\n\n1.5e3 ** 2\n";
+        Lexer lexer = new Lexer(new LexConfig());
+        TokenStream expected = lexer.lex(expression);
+        for (int chunkSize = 1; chunkSize < 32; chunkSize++) {
+            TokenStream stream = new ChunkLexer(lexer, chunkSize)
+                    .lex(expression, ForkJoinPool.commonPool());
+            while (expected.hasNext()) {
+                assert stream.get().toString().equals(expected.get().toString());
+                assert stream.next().getType() == expected.next().getType();
+            }
+            assert !stream.hasNext();
+            expected.reset();
+        }
+    }
+
+    @Test
+    void testLexAll() {
+        Lexer lexer = new Lexer(new LexConfig());
+        List<LexResult> results = lexer.lexAll(Arrays.asList("a + 1", "'b", "c.d(e)"));
+        for (LexResult result : results) {
+            if (result.isSuccess()) System.out.println(result.getExpression() + ": ok");
+            else System.out.println(result.getExpression() + ": " + result.getError().getMessage());
+        }
+        assert results.get(0).isSuccess() && results.get(0).getStream().next().isIdentifier();
+        assert !results.get(1).isSuccess() && results.get(1).getError().getOffset() == 1;
+        assert results.get(2).isSuccess();
+    }
+
+    @Test
+    void testKeyword() {
+        LexConfig config = new LexConfig();
+        IdentifierToken let = new IdentifierToken("let");
+        config.addKeyword(let);
+        Lexer lexer = new Lexer(config);
+        TokenStream stream = lexer.lex("let x = let1 + x");
+        assert stream.next() == let;
+        Token x = stream.next();
+        stream.next();
+        assert stream.next().getIdentifier().equals("let1");
+        stream.next();
+        assert stream.next() == x;
+
+        // recompiled after a keyword is added
+        IdentifierToken x2 = new IdentifierToken("x");
+        config.addKeyword(x2);
+        assert lexer.lex("x").next() == x2;
+        System.out.println(lexer.getIdentifierCache().getStats());
+    }
+
+    @Test
+    void testNumber() {
+        Lexer lexer = new Lexer(new LexConfig());
+        TokenStream stream = lexer.lex("12 12345678901 1.25 2.5e-3");
+        NumberToken token = (NumberToken) stream.next();
+        assert token.getValue() instanceof Integer && token.intValue() == 12;
+        token = (NumberToken) stream.next();
+        assert token.getValue() instanceof Long && token.longValue() == 12345678901L;
+        token = (NumberToken) stream.next();
+        assert token.getValue() instanceof Double && token.doubleValue() == 1.25;
+        token = (NumberToken) stream.next();
+        assert token.doubleValue() == 2.5e-3;
+
+        lexer = new Lexer(new LexConfig().setBigNumberStrategy(LexConfig.BigNumberStrategy.RANGE));
+        stream = lexer.lex("12 12345678901234567890");
+        assert stream.next().getValue() instanceof Integer;
+        token = (NumberToken) stream.next();
+        assert token.getValue() instanceof java.math.BigInteger;
+        System.out.println(token.doubleValue());
+    }
+
+    @Test
+    void testOperator() {
+        LexConfig config = new LexConfig();
+        for (String raw : Arrays.asList("=>", "->", "<<", "&&=")) {
+            config.addOperator(new UserOperatorToken(raw));
+        }
+        Lexer lexer = new Lexer(config);
+        TokenStream stream = lexer.lex("a => b->c << 1 <= 2 &&= x && y..z");
+        StringBuilder sb = new StringBuilder();
+        while (stream.hasNext()) {
+            sb.append(stream.next().getRaw()).append(' ');
+        }
+        System.out.println(sb);
+        assert sb.toString().equals("a => b -> c << 1 <= 2 &&= x && y .. z ");
+
+        // the longest one is cut by the end of the window
+        stream = lexer.lex(new StringReader("a&&=b"), 2);
+        stream.next();
+        assert stream.next().getRaw().equals("&&=");
+
+        // the registered token is decoded
+        Token arrow = config.getOperators().get("=>");
+        assert arrow.getType() == Token.Type.OPERATOR && !arrow.isIdentifier();
+        TokenStreamCodec codec = new TokenStreamCodec(lexer);
+        stream = codec.decode(codec.encode(lexer.lex("a => b"), true));
+        stream.next();
+        assert stream.next() == arrow;
+    }
+
+    @Test
+    void testString() {
+        Lexer lexer = new Lexer(new LexConfig());
+        TokenStream stream = lexer.lex("'a b' + \"c\\\"d\" + `e`");
+        Token token = stream.next();
+        assert token.getRaw().equals("'a b'") && token.getValue().equals("a b");
+        assert ((StringToken) token).isSingle();
+        stream.next();
+        token = stream.next();
+        assert token.getValue().equals("c\"d") && ((StringToken) token).isDouble();
+        stream.next();
+        assert stream.next().equals(StringToken.ofBacktick("e"));
+
+        // intern the literals
+        lexer = new Lexer(new LexConfig(), TokenCache.unbounded(), TokenCache.unbounded(),
+                TokenCache.unbounded());
+        Token a = lexer.lex("'a'").next();
+        stream = lexer.lex("x + 'a'");
+        stream.next();
+        stream.next();
+        assert stream.next() == a;
+        System.out.println(lexer.getStringCache().getStats());
+    }
+
+    @Test
+    void testSkip() {
+        LexConfig config = new LexConfig().setSkippedTypes(EnumSet.of(Token.Type.COMMENT));
+        Lexer lexer = new Lexer(config);
+        String expression = "/* head */ a // a\n + /* b */ b\n// tail";
+        TokenStream stream = lexer.lex(expression);
+        StringBuilder sb = new StringBuilder();
+        while (stream.hasNext()) {
+            System.out.println(stream.get());
+            sb.append(stream.next().getRaw());
+        }
+        assert sb.toString().equals("a+b");
+
+        stream = lexer.lex(new StringReader(expression), 4);
+        stream.next();
+        assert stream.next().getRaw().equals("+");
+
+        config.setKeptTypes(EnumSet.of(Token.Type.IDENTIFIER));
+        stream = lexer.lex(expression);
+        assert stream.next().getRaw().equals("a") && stream.next().getRaw().equals("b");
+        assert !stream.hasNext();
+    }
+
+    @Test
+    void testGrammar() {
+        LexConfig config = new LexConfig();
+        LexGrammar grammar = config.compile();
+        assert config.compile() == grammar;
+
+        IdentifierToken let = new IdentifierToken("let"), var = new IdentifierToken("var");
+        config.update(it -> {
+            it.addKeyword(let);
+            // the last grammar is kept in the update
+            assert it.compile() == grammar;
+            it.addKeyword(var);
+        });
+        assert config.compile() != grammar;
+
+        TokenStream stream = new Lexer(config).lex("let a = var");
+        assert stream.next() == let;
+        stream.next();
+        stream.next();
+        assert stream.next() == var;
+
+        // a keyword is added by addKeyword only, which compiles it
+        try {
+            config.getKeywords().put("const", new IdentifierToken("const"));
+            assert false;
+        } catch (UnsupportedOperationException ignored) {
+        }
+        assert config.getKeywords().size() == 2;
+
+        // keywords added while other threads lex are all in the last grammar
+        Lexer lexer = new Lexer(config);
+        IdentifierToken[] keywords = new IdentifierToken[100];
+        ForkJoinPool.commonPool().submit(() -> {
+            for (int i = 0; i < keywords.length; i++) {
+                config.addKeyword(keywords[i] = new IdentifierToken("k" + i));
+            }
+        });
+        List<String> expressions = Collections.nCopies(1000, "k1 + k50 + k99");
+        lexer.lexAll(expressions, ForkJoinPool.commonPool());
+        ForkJoinPool.commonPool().awaitQuiescence(10, TimeUnit.SECONDS);
+        stream = lexer.lex("k99");
+        assert stream.next() == keywords[99];
+    }
+
+    @Test
+    void testDiagnose() {
+        Lexer lexer = new Lexer(new LexConfig());
+        LexResult result = lexer.diagnose("a \\\\ b +\n1e + 'c");
+        result.getErrors().forEach(System.out::println);
+        assert !result.isSuccess() && result.getErrors().size() == 3;
+        LexError error = result.getErrors().get(1);
+        assert error.getLine() == 2 && error.getCol() == 3;
+        assert error.getToken().getRaw().equals("1e");
+
+        StringBuilder sb = new StringBuilder();
+        TokenStream stream = result.getStream();
+        while (stream.hasNext()) {
+            sb.append(stream.next().getType()).append(' ');
+        }
+        System.out.println(sb);
+        assert sb.toString().equals("IDENTIFIER INVALID IDENTIFIER OPERATOR INVALID OPERATOR INVALID ");
+
+        List<LexResult> results = lexer.diagnoseAll(Arrays.asList("a", "1e"), ForkJoinPool.commonPool());
+        assert results.get(0).isSuccess() && !results.get(1).isSuccess();
+    }
+
+    @Test
+    void testCodec() {
+        LexConfig config = new LexConfig();
+        IdentifierToken let = new IdentifierToken("let");
+        config.addKeyword(let);
+        Lexer lexer = new Lexer(config);
+        String expression = "let a = 'x' + 1.5; // c\n/* d */ let b = a ** 2";
+        TokenStream stream = lexer.lex(expression);
+
+        TokenStreamCodec codec = new TokenStreamCodec(lexer);
+        for (boolean withSource : new boolean[]{true, false}) {
+            byte[] bytes = codec.encode(stream, withSource);
+            System.out.println(bytes.length + " bytes, with source: " + withSource);
+            TokenStream decoded = codec.decode(bytes);
+            assert decoded.next() == let;
+            decoded.previous();
+            TokenStream s = lexer.lex(expression);
+            while (s.hasNext()) {
+                assert decoded.get().toString().equals(s.get().toString());
+                Token token = decoded.next(), expected = s.next();
+                assert token.getType() == expected.getType() && token.getRaw().equals(expected.getRaw());
+            }
+            assert !decoded.hasNext();
+
+            // corrupt bytes, such as a negative or huge count, fail by a RoundException only
+            byte[][] patches = {{(byte) 0x7f}, {(byte) 0x80}, {(byte) 0xff, (byte) 0xff, 0x7f},
+                    {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f}};
+            for (int k = 0; k < bytes.length; k++) {
+                for (byte[] patch : patches) {
+                    byte[] corrupt = bytes.clone();
+                    System.arraycopy(patch, 0, corrupt, k, Math.min(patch.length, bytes.length - k));
+                    try {
+                        codec.decode(corrupt);
+                    } catch (RoundException ignored) {
+                    }
+                }
+            }
+        }
+
+        // the cols count chars after a round trip of non-ascii input
+        String utf8 = "名字 = 'ünï 😀'\n  größe + 1";
+        byte[] bytes = utf8.getBytes(StandardCharsets.UTF_8);
+        for (TokenStream s : Arrays.asList(lexer.lex(utf8), lexer.lex(ByteBuffer.wrap(bytes)))) {
+            boolean fromBytes = s.getExpression() == null;
+            TokenStream decoded = codec.decode(codec.encode(s, fromBytes));
+            TokenStream expected = lexer.lex(utf8);
+            while (expected.hasNext()) {
+                TokenInfo tokenInfo = decoded.get(), expectedInfo = expected.get();
+                assert tokenInfo.getToken().getRaw().equals(expectedInfo.getToken().getRaw());
+                assert tokenInfo.getStartLine() == expectedInfo.getStartLine();
+                assert tokenInfo.getStartCol() == expectedInfo.getStartCol();
+                assert tokenInfo.getEndCol() == expectedInfo.getEndCol();
+                decoded.next();
+                expected.next();
+            }
+            assert !decoded.hasNext();
+        }
+        try {
+            codec.encode(lexer.lex(ByteBuffer.wrap(bytes)), false);
+            assert false;
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    void testFileCache() throws IOException {
+        File dir = Files.createTempDirectory("round-lex").toFile();
+        String expression = "let a = 'x' + 1.5; // c\nlet b = a ** 2";
+        LexConfig config = new LexConfig();
+        IdentifierToken let = new IdentifierToken("let");
+        config.addKeyword(let);
+
+        // a restart is a new lexer on the same directory
+        for (int k = 0; k < 2; k++) {
+            TokenStreamFileCache cache = new TokenStreamFileCache(new Lexer(config), dir.toPath());
+            TokenStream stream = cache.lex(expression);
+            System.out.println(cache.getStats());
+            assert cache.getStats().getHitCount() == k;
+            assert stream.next() == let;
+            assert expression.equals(stream.getExpression());
+            TokenInfo last = null;
+            while (stream.hasNext()) {
+                last = stream.get();
+                stream.next();
+            }
+            System.out.println(last);
+            assert last.getStartLine() == 2 && last.getStartCol() == 14;
+        }
+
+        // another config misses the files of the old one
+        config.setSkippedTypes(EnumSet.of(Token.Type.COMMENT));
+        TokenStreamFileCache cache = new TokenStreamFileCache(new Lexer(config), dir.toPath());
+        cache.lex(expression);
+        assert cache.getStats().getMissCount() == 1;
+        assert dir.list().length == 2;
+
+        // a broken file is lexed again
+        for (File file : dir.listFiles()) Files.write(file.toPath(), new byte[]{1, 2});
+        assert cache.lex(expression).next() == let;
+        assert cache.getStats().getMissCount() == 2;
+
+        // a file is decoded only if it is missed, so a hit has no expression
+        File file = File.createTempFile("round-lex", ".txt");
+        String utf8 = "größe = 'ü'\n  let + b";
+        Files.write(file.toPath(), utf8.getBytes(StandardCharsets.UTF_8));
+        TokenStream missed = cache.lex(file.toPath()), hit = cache.lex(file.toPath());
+        assert utf8.equals(missed.getExpression()) && hit.getExpression() == null;
+        while (missed.hasNext()) {
+            assert hit.get().toString().equals(missed.get().toString());
+            hit.next();
+            missed.next();
+        }
+        assert !hit.hasNext();
+        assert file.delete();
+
+        cache.clear();
+        assert dir.list().length == 0;
+        assert dir.delete();
+    }
+
+    @Test
+    void testMetrics() {
+        Lexer lexer = new Lexer(new LexConfig());
+        LexMetrics metrics = new LexMetrics(lexer);
+        lexer.setListener(metrics);
+
+        lexer.lex("a + b * 2");
+        lexer.lex("a + 'c'");
+        lexer.diagnose("a 'b");
+        try {
+            lexer.lex("a 'b");
+            assert false;
+        } catch (LexCompileException e) {
+            System.out.println(e.getMessage());
+        }
+        System.out.println(metrics);
+        metrics.getLatencies().forEach(System.out::println);
+
+        assert metrics.getLexCount() == 4 && metrics.getErrorCount() == 1;
+        assert metrics.getErrorRate() == 0.25;
+        assert metrics.getCharCount() == 24;
+        assert metrics.getTokenCount() == 10;
+        assert metrics.getTokenCount(Token.Type.IDENTIFIER) == 4;
+        assert metrics.getTokenCount(Token.Type.INVALID) == 1;
+        assert metrics.getIdentifierCacheStats().getSize() == 2;
+        assert metrics.getLatencies().get(0).getCount() == 3;
+    }
+
+    @Test
+    void testCheckpoint() {
+        StringBuilder sb = new StringBuilder("let x = ");
+        for (int i = 0; i < 300; i++) sb.append("a").append(i).append(" + ");
+        String expression = sb.append("1").toString();
+        Lexer lexer = new Lexer(new LexConfig());
+
+        // the reader stream keeps the tokens after a checkpoint only
+        for (TokenStream stream : Arrays.asList(lexer.lex(expression),
+                lexer.lex(new StringReader(expression), 16))) {
+            assert "x".equals(stream.peek(1).getRaw());
+            assert stream.peekType(2) == Token.Type.OPERATOR;
+            assert stream.peek(1000) == null;
+            assert "let".equals(stream.next().getRaw());
+
+            int outer = stream.checkpoint();
+            for (int i = 0; i < 200; i++) stream.next();
+            int inner = stream.checkpoint();
+            Token token = stream.next();
+            stream.rollback(inner);
+            assert stream.next() == token;
+            stream.release(inner);
+            for (int i = 0; i < 300; i++) stream.next();
+            stream.rollback(outer);
+            assert "x".equals(stream.next().getRaw());
+            stream.release(outer);
+
+            while (stream.hasNext()) stream.next();
+            assert stream.peek(0) == null && stream.peekType(0) == null;
+        }
+
+        SimpleTokenStream stream = (SimpleTokenStream) lexer.lex(expression);
+        assert stream.size() == 604;
+        stream.next();
+        assert stream.index() == 1 && stream.token(1) == stream.peek(0);
+        assert stream.get(603).getStartCol() == expression.length();
+        try {
+            stream.token(604);
+            assert false;
+        } catch (IndexOutOfBoundsException e) {
+            System.out.println(e.getMessage());
+        }
+
+        // the wrong syntax message keeps the offset and mark of the stream
+        stream.next();
+        stream.mark();
+        stream.next();
+        try {
+            stream.throwWrongSyntax();
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
+        assert stream.index() == 3;
+        stream.reset();
+        assert stream.index() == 2;
+
+        // a stream of another implementation has no checkpoints, but peeks
+        // and builds the wrong syntax message without moving
+        TokenStream inner = lexer.lex("a + b * c");
+        TokenStream outer = new TokenStream() {
+            public String getExpression() {
+                return inner.getExpression();
+            }
+
+            public boolean hasNext() {
+                return inner.hasNext();
+            }
+
+            public Token next() {
+                return inner.next();
+            }
+
+            public boolean hasPrevious() {
+                return inner.hasPrevious();
+            }
+
+            public Token previous() {
+                return inner.previous();
+            }
+
+            public TokenInfo get() {
+                return inner.get();
+            }
+
+            public void mark() {
+                inner.mark();
+            }
+
+            public void reset() {
+                inner.reset();
+            }
+
+            public <T> T throwWrongSyntax() {
+                throw lexer.config.getSyntaxExceptionProducer().apply(this);
+            }
+        };
+        outer.next();
+        assert outer.peek(2).getRaw().equals("*") && outer.peek(4) == null;
+        try {
+            outer.throwWrongSyntax();
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+            assert e.getMessage().endsWith("a + b * c");
+        }
+        assert outer.get().getToken().getRaw().equals("+");
+        try {
+            outer.checkpoint();
+            assert false;
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    void testTokenArray() {
+        String expression = "a = b + 'c'\nd = a * 1.5 // e";
+        Lexer lexer = new Lexer(new LexConfig());
+        TokenArray tokens = lexer.lexArray(expression);
+        System.out.println(tokens.size() + " tokens: " + tokens.get(tokens.size() - 1));
+        assert tokens.getExpression().equals(expression);
+        assert tokens.type(5) == Token.Type.IDENTIFIER && tokens.get(5).getStartLine() == 2;
+
+        // each thread reads by its own stream, and sees the same tokens
+        long count = Arrays.asList(1, 2, 3, 4).parallelStream().filter(n -> {
+            TokenStream stream = tokens.stream();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (stream.get().getStartCol() != tokens.get(i).getStartCol()) return false;
+                if (stream.next() != tokens.token(i)) return false;
+            }
+            return !stream.hasNext();
+        }).count();
+        assert count == 4;
+
+        TokenStream stream = tokens.stream();
+        stream.next();
+        stream.mark();
+        assert tokens.stream().next() == tokens.token(0);
+    }
+
+    @Test
+    void testLazy() {
+        StringBuilder sb = new StringBuilder("route x.y {\n");
+        for (int i = 0; i < 10000; i++) sb.append("  a").append(i).append(" = 'b' + ").append(i).append(";\n");
+        String expression = sb.append("} '").toString();
+        Lexer lexer = new Lexer(new LexConfig());
+
+        // the leading tokens are read before the invalid char is lexed
+        TokenStream stream = lexer.lexLazily(expression);
+        assert "route".equals(stream.next().getRaw());
+        assert stream.peekType(0) == Token.Type.IDENTIFIER && ".".equals(stream.peek(1).getRaw());
+        assert stream.get().getStartCol() == 7;
+
+        String message = null;
+        try {
+            lexer.lex(expression);
+        } catch (LexCompileException e) {
+            message = e.getMessage();
+        }
+        TokenStream expected = lexer.lexLazily(expression.substring(0, expression.length() - 1));
+        expected.next();
+        try {
+            while (stream.hasNext()) {
+                assert stream.get().toString().equals(expected.get().toString());
+                assert stream.next().getRaw().equals(expected.next().getRaw());
+            }
+            assert false;
+        } catch (LexCompileException e) {
+            System.out.println(e.getMessage());
+            assert e.getMessage().equals(message);
+        }
+        assert !expected.hasNext();
+    }
+}